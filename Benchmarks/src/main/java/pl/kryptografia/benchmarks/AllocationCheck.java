@@ -0,0 +1,80 @@
+package pl.kryptografia.benchmarks;
+
+import java.util.Collection;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Allocation regression check of operations which have to work in place.
+ *
+ * Runs the benchmarks of addition and subtraction which subtract magnitudes
+ * (in both orders) of both copies of BigNum with the GC profiler and fails if
+ * any of them allocates memory:
+ * java -cp target/benchmarks.jar pl.kryptografia.benchmarks.AllocationCheck
+ *
+ * Standard JMH options may be given to override the defaults (e.g. -p bits=).
+ * The same operations are checked on every build by BigNumAllocationTest.
+ */
+public class AllocationCheck {
+
+    /**
+     * Benchmarks which must not allocate.
+     */
+    private final static String BENCHMARKS = "(ElGamal|Rabin)BigNumBenchmark\\.(addNegative|subtract)(Smaller|Greater)";
+
+    /**
+     * Name of the secondary result with bytes allocated per operation.
+     */
+    private final static String ALLOCATION_RESULT = "gc.alloc.rate.norm";
+
+    /**
+     * Bytes per operation which are still considered no allocation (JMH
+     * itself allocates a little during every iteration, which is spread over
+     * all operations; a single allocated object takes at least 16 bytes).
+     */
+    private final static double TOLERANCE = 1.0;
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .include(BENCHMARKS)
+                .param("bits", "2048")
+                .warmupIterations(3)
+                .measurementIterations(3)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        Collection<RunResult> results = new Runner(options).run();
+        if (results.isEmpty()) {
+            throw new IllegalStateException("No benchmark matched " + BENCHMARKS);
+        }
+
+        StringBuilder failures = new StringBuilder();
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            Result allocation = result.getSecondaryResults().get(ALLOCATION_RESULT);
+            if (allocation == null) {
+                throw new IllegalStateException("GC profiler did not report " + ALLOCATION_RESULT
+                        + " for " + benchmark);
+            }
+
+            double bytes = allocation.getScore();
+            System.out.printf("%s: %.3f B/op%n", benchmark, bytes);
+            if (bytes > TOLERANCE) {
+                failures.append(String.format("%n%s allocates %.3f B/op", benchmark, bytes));
+            }
+        }
+
+        if (failures.length() > 0) {
+            throw new IllegalStateException("Allocation regression:" + failures);
+        }
+    }
+}
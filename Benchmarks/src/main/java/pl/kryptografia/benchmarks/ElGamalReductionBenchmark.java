@@ -0,0 +1,168 @@
+package pl.kryptografia.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pl.kryptografia.elgamal.bignum.BarrettReducer;
+import pl.kryptografia.elgamal.bignum.BigNum;
+import pl.kryptografia.elgamal.bignum.MontgomeryContext;
+
+/**
+ * Compares reduction modulo a fixed modulus using BigNum.modulo, Barrett
+ * reduction and Montgomery multiplication (ElGamal copy of BigNum).
+ *
+ * The reduce benchmarks reduce a double width product, the multiply
+ * benchmarks multiply two reduced numbers modulo the modulus (Montgomery works
+ * on numbers in Montgomery form) and the power benchmarks run whole modular
+ * exponentiations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElGamalReductionBenchmark {
+
+    /**
+     * Size of the modulus in bits.
+     */
+    @Param({"512", "1024", "2048"})
+    public int bits;
+
+    /**
+     * Odd modulus of the given size.
+     */
+    private BigNum modulus;
+
+    private BarrettReducer reducer;
+
+    private MontgomeryContext context;
+
+    /**
+     * Reduced operands.
+     */
+    private BigNum first;
+
+    private BigNum second;
+
+    /**
+     * Operands in Montgomery form.
+     */
+    private BigNum montgomeryFirst;
+
+    private BigNum montgomerySecond;
+
+    /**
+     * Product of the reduced operands.
+     */
+    private BigNum product;
+
+    private BigNum exponent;
+
+    private BigNum result;
+
+    @Setup
+    public void setUp() {
+        modulus = randomNumber(bits);
+        modulus.setBit(BigNum.BITS - 1, 1);
+
+        reducer = new BarrettReducer(modulus);
+        context = new MontgomeryContext(modulus);
+
+        first = randomNumber(bits);
+        first.modulo(modulus);
+        second = randomNumber(bits);
+        second.modulo(modulus);
+
+        montgomeryFirst = new BigNum(first);
+        context.toMontgomery(montgomeryFirst);
+        montgomerySecond = new BigNum(second);
+        context.toMontgomery(montgomerySecond);
+
+        product = new BigNum(first);
+        product.multiply(second);
+
+        exponent = randomNumber(bits);
+        result = new BigNum();
+    }
+
+    /**
+     * Creates a random number with exactly given number of bits.
+     *
+     * @param bits Number of bits (a multiple of the block size).
+     * @return Random number.
+     */
+    private static BigNum randomNumber(int bits) {
+        BigNum number = new BigNum();
+        number.randomize(bits / BigNum.BLOCK_SIZE);
+        number.setBit(BigNum.BITS - bits, 1);
+        return number;
+    }
+
+    @Benchmark
+    public BigNum reduceModulo() {
+        result.initializeFromBigNum(product);
+        result.modulo(modulus);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum reduceBarrett() {
+        result.initializeFromBigNum(product);
+        reducer.reduce(result);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum multiplyModulo() {
+        result.initializeFromBigNum(first);
+        result.multiply(second);
+        result.modulo(modulus);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum multiplyBarrett() {
+        result.initializeFromBigNum(first);
+        reducer.multiplyModulo(result, second);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum multiplyMontgomery() {
+        result.initializeFromBigNum(montgomeryFirst);
+        context.montMul(result, montgomerySecond);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum powerModulo() {
+        result.initializeFromBigNum(first);
+        result.powerModulo(exponent, modulus);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum powerModuloBarrett() {
+        result.initializeFromBigNum(first);
+        result.powerModulo(exponent, reducer);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum powerModuloMontgomery() {
+        result.initializeFromBigNum(first);
+        result.powerModulo(exponent, context);
+        return result;
+    }
+}
@@ -0,0 +1,82 @@
+package pl.kryptografia.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import pl.kryptografia.elgamal.signature.ElGamalSignatureScheme;
+
+/**
+ * End-to-end benchmarks of signing and verification with the ElGamal
+ * signature scheme.
+ *
+ * The scheme uses its pregenerated 2048-bit key and is shared by all threads,
+ * like a single scheme serving many requests. Every operation is measured as
+ * throughput and as sampled latency (with percentiles), the variants with the
+ * Parallel suffix run on all available processors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ElGamalSignatureBenchmark {
+
+    /**
+     * Size of the signed message in bytes (1 KB, 1 MB and 100 MB).
+     */
+    @Param({"1024", "1048576", "104857600"})
+    public int messageSize;
+
+    private ElGamalSignatureScheme scheme;
+
+    private byte[] message;
+
+    private byte[] signature;
+
+    @Setup
+    public void setUp() {
+        scheme = new ElGamalSignatureScheme();
+
+        message = new byte[messageSize];
+        new Random(messageSize).nextBytes(message);
+
+        signature = scheme.sign(message);
+        if (!scheme.verify(message, signature)) {
+            throw new IllegalStateException("Signature of the benchmark message is invalid");
+        }
+    }
+
+    @Benchmark
+    public byte[] sign() {
+        return scheme.sign(message);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return scheme.verify(message, signature);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public byte[] signParallel() {
+        return scheme.sign(message);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean verifyParallel() {
+        return scheme.verify(message, signature);
+    }
+}
@@ -0,0 +1,86 @@
+package pl.kryptografia.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pl.kryptografia.elgamal.bignum.BigNum;
+
+/**
+ * Compares multiplication and squaring of numbers of given length with
+ * different Karatsuba thresholds (ElGamal copy of BigNum, the Rabin copy is
+ * the same).
+ *
+ * The threshold 2147483647 turns Karatsuba's algorithm off. The default
+ * threshold of BigNum is the smallest one which is faster than the schoolbook
+ * method for all lengths at least equal to it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KaratsubaBenchmark {
+
+    /**
+     * Length of the factors in blocks (at most half of BigNum.BLOCKS, so the
+     * product fits).
+     */
+    @Param({"16", "24", "32", "48", "64"})
+    public int blocks;
+
+    /**
+     * Karatsuba threshold in blocks.
+     */
+    @Param({"2147483647", "16", "24", "32", "48", "64"})
+    public int threshold;
+
+    private int originalThreshold;
+
+    private BigNum first;
+
+    private BigNum second;
+
+    private BigNum result;
+
+    @Setup
+    public void setUp() {
+        originalThreshold = BigNum.getKaratsubaThreshold();
+        BigNum.setKaratsubaThreshold(threshold);
+
+        first = new BigNum();
+        first.randomize(blocks);
+        second = new BigNum();
+        second.randomize(blocks);
+        result = new BigNum();
+    }
+
+    @TearDown
+    public void tearDown() {
+        BigNum.setKaratsubaThreshold(originalThreshold);
+    }
+
+    @Benchmark
+    public BigNum multiply() {
+        result.initializeFromBigNum(first);
+        result.multiply(second);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum square() {
+        result.initializeFromBigNum(first);
+        result.square();
+        return result;
+    }
+}
@@ -0,0 +1,249 @@
+package pl.kryptografia.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pl.kryptografia.rabin.bignum.BigNum;
+import pl.kryptografia.rabin.bignum.MontgomeryContext;
+import pl.kryptografia.rabin.calculation.EuclideanSolver;
+import pl.kryptografia.rabin.calculation.Pair;
+
+/**
+ * Benchmarks of the primitive operations of the Rabin copy of BigNum.
+ *
+ * This copy of BigNum has no gcd method, so the extended Euclidean algorithm of
+ * EuclideanSolver (used to find the CRT coefficients of the key) is measured
+ * instead.
+ *
+ * BigNum operations work in place, so every benchmark first copies its operand
+ * into a preallocated result. The copy alone is measured by the copy benchmark
+ * and can be subtracted from the other results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RabinBigNumBenchmark {
+
+    /**
+     * Number of bits by which numbers are shifted (not a multiple of the block
+     * size, so bits cross block boundaries).
+     */
+    private final static int SHIFT = 67;
+
+    /**
+     * Size of the operands in bits.
+     */
+    @Param({"512", "1024", "2048"})
+    public int bits;
+
+    private BigNum first;
+
+    private BigNum second;
+
+    /**
+     * Positive operands of different magnitudes (smaller < greater) and their
+     * negations, for addition and subtraction of numbers of different signs in
+     * both orders of magnitude (these must not allocate, see AllocationCheck).
+     */
+    private BigNum smaller;
+
+    private BigNum greater;
+
+    private BigNum negativeSmaller;
+
+    private BigNum negativeGreater;
+
+    /**
+     * Product of both operands used as the dividend of modulo and divide.
+     */
+    private BigNum dividend;
+
+    /**
+     * Odd modulus of the operands' size.
+     */
+    private BigNum modulus;
+
+    private BigNum exponent;
+
+    private MontgomeryContext context;
+
+    private final EuclideanSolver solver = EuclideanSolver.getInstance();
+
+    private BigNum result;
+
+    @Setup
+    public void setUp() {
+        first = randomNumber(bits);
+        second = randomNumber(bits);
+        exponent = randomNumber(bits);
+
+        modulus = randomNumber(bits);
+        modulus.setBit(BigNum.BITS - 1, 1);
+
+        // the base of exponentiation has to be smaller than the modulus
+        first.modulo(modulus);
+
+        dividend = new BigNum(first);
+        dividend.multiply(second);
+
+        context = new MontgomeryContext(modulus);
+
+        // the extended Euclidean algorithm requires coprime numbers
+        while (!isCoprime(second, modulus)) {
+            second = randomNumber(bits);
+        }
+
+        greater = randomNumber(bits);
+        smaller = randomNumber(bits);
+        smaller.setBit(BigNum.BITS - bits, 0);
+        negativeSmaller = new BigNum(smaller);
+        negativeSmaller.setSign(-1);
+        negativeGreater = new BigNum(greater);
+        negativeGreater.setSign(-1);
+
+        result = new BigNum();
+    }
+
+    /**
+     * Creates a random number with exactly given number of bits.
+     *
+     * @param bits Number of bits (a multiple of the block size).
+     * @return Random number.
+     */
+    private static BigNum randomNumber(int bits) {
+        BigNum number = new BigNum();
+        number.randomize(bits / BigNum.BLOCK_SIZE);
+        number.setBit(BigNum.BITS - bits, 1);
+        return number;
+    }
+
+    private boolean isCoprime(BigNum x, BigNum y) {
+        try {
+            solver.inverseModulo(x, y);
+            return true;
+        } catch (ArithmeticException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public BigNum copy() {
+        result.initializeFromBigNum(first);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum multiply() {
+        result.initializeFromBigNum(first);
+        result.multiply(second);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum square() {
+        result.initializeFromBigNum(first);
+        result.square();
+        return result;
+    }
+
+    @Benchmark
+    public BigNum add() {
+        result.initializeFromBigNum(first);
+        result.add(second);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum subtract() {
+        result.initializeFromBigNum(first);
+        result.subtract(second);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum addNegativeSmaller() {
+        result.initializeFromBigNum(greater);
+        result.add(negativeSmaller);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum addNegativeGreater() {
+        result.initializeFromBigNum(smaller);
+        result.add(negativeGreater);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum subtractSmaller() {
+        result.initializeFromBigNum(greater);
+        result.subtract(smaller);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum subtractGreater() {
+        result.initializeFromBigNum(smaller);
+        result.subtract(greater);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum modulo() {
+        result.initializeFromBigNum(dividend);
+        result.modulo(modulus);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum divide() {
+        result.initializeFromBigNum(dividend);
+        result.divide(modulus);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum shiftLeft() {
+        result.initializeFromBigNum(first);
+        result.shiftLeft(SHIFT);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum shiftRight() {
+        result.initializeFromBigNum(first);
+        result.shiftRight(SHIFT);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum powerModulo() {
+        result.initializeFromBigNum(first);
+        result.powerModulo(exponent, modulus);
+        return result;
+    }
+
+    @Benchmark
+    public BigNum powerModuloMontgomery() {
+        result.initializeFromBigNum(first);
+        result.powerModulo(exponent, context);
+        return result;
+    }
+
+    @Benchmark
+    public Pair extendedGcd() {
+        return solver.solve(second, modulus);
+    }
+}
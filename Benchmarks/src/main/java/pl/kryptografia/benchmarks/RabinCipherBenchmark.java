@@ -0,0 +1,93 @@
+package pl.kryptografia.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import pl.kryptografia.rabin.bignum.BigNumContext;
+import pl.kryptografia.rabin.cipher.RabinCipher;
+
+/**
+ * End-to-end benchmarks of encryption and decryption with the Rabin
+ * cryptosystem.
+ *
+ * The cipher is shared by all threads. The key has the default width and is
+ * generated once per trial. Every operation is measured as throughput and as
+ * sampled latency (with percentiles), the variants with the Parallel suffix
+ * run on all available processors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RabinCipherBenchmark {
+
+    private final static BigNumContext CONTEXT = BigNumContext.DEFAULT;
+
+    /**
+     * Size of the plain text in bytes (1 KB, 64 KB and 1 MB, the largest one
+     * shows how the cipher scales with the number of chunks).
+     */
+    @Param({"1024", "65536", "1048576"})
+    public int messageSize;
+
+    /**
+     * Number of threads which process chunks of a single message.
+     */
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private RabinCipher cipher;
+
+    private byte[] plainText;
+
+    private byte[] cipherText;
+
+    @Setup
+    public void setUp() {
+        cipher = new RabinCipher(CONTEXT, parallelism);
+
+        plainText = new byte[messageSize];
+        new Random(messageSize).nextBytes(plainText);
+
+        cipherText = cipher.encrypt(plainText);
+        if (!Arrays.equals(plainText, cipher.decrypt(cipherText))) {
+            throw new IllegalStateException("Benchmark message was not decrypted correctly");
+        }
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return cipher.encrypt(plainText);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return cipher.decrypt(cipherText);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public byte[] encryptParallel() {
+        return cipher.encrypt(plainText);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public byte[] decryptParallel() {
+        return cipher.decrypt(cipherText);
+    }
+}
@@ -0,0 +1,97 @@
+package pl.kryptografia.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that addition and subtraction of both copies of BigNum work in place.
+ *
+ * The operations of BigNum benchmarks (which subtract magnitudes in both
+ * orders) are repeated and the bytes allocated by the current thread are
+ * measured, so an allocation regression fails the build. AllocationCheck runs
+ * the same benchmarks with JMH.
+ */
+public class BigNumAllocationTest {
+
+    /**
+     * Size of the operands in bits.
+     */
+    private final static int BITS = 2048;
+
+    /**
+     * Operations run before measuring (lazily created objects, e.g. per-thread
+     * pools, are allocated only once).
+     */
+    private final static int WARMUP_OPERATIONS = 10000;
+
+    /**
+     * Measured operations.
+     */
+    private final static int OPERATIONS = 100000;
+
+    @Test
+    public void elGamalAddAndSubtractDoNotAllocate() {
+        ElGamalBigNumBenchmark benchmark = new ElGamalBigNumBenchmark();
+        benchmark.bits = BITS;
+        benchmark.setUp();
+
+        assertNoAllocation("ElGamal addNegativeSmaller", benchmark::addNegativeSmaller);
+        assertNoAllocation("ElGamal addNegativeGreater", benchmark::addNegativeGreater);
+        assertNoAllocation("ElGamal subtractSmaller", benchmark::subtractSmaller);
+        assertNoAllocation("ElGamal subtractGreater", benchmark::subtractGreater);
+    }
+
+    @Test
+    public void rabinAddAndSubtractDoNotAllocate() {
+        RabinBigNumBenchmark benchmark = new RabinBigNumBenchmark();
+        benchmark.bits = BITS;
+        benchmark.setUp();
+
+        assertNoAllocation("Rabin addNegativeSmaller", benchmark::addNegativeSmaller);
+        assertNoAllocation("Rabin addNegativeGreater", benchmark::addNegativeGreater);
+        assertNoAllocation("Rabin subtractSmaller", benchmark::subtractSmaller);
+        assertNoAllocation("Rabin subtractGreater", benchmark::subtractGreater);
+    }
+
+    /**
+     * Fails if given operation allocates memory.
+     *
+     * A single allocated object takes at least 16 bytes, so less than a byte
+     * per operation (e.g. allocated by measuring itself) is no allocation.
+     *
+     * @param name Name of the operation.
+     * @param operation Operation.
+     */
+    private static void assertNoAllocation(String name, Runnable operation) {
+        for (int i = 0; i < WARMUP_OPERATIONS; ++i) {
+            operation.run();
+        }
+
+        long before = allocatedBytes();
+        for (int i = 0; i < OPERATIONS; ++i) {
+            operation.run();
+        }
+        long allocated = allocatedBytes() - before;
+
+        assertTrue(name + " allocates " + allocated + " bytes in " + OPERATIONS + " operations",
+                allocated < OPERATIONS);
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far.
+     *
+     * The test is skipped if the JVM cannot measure it.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported()
+                && threads.isThreadAllocatedMemoryEnabled());
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -35,6 +35,17 @@ public class BigNum {
      */
     private final long[] number = new long[BLOCKS];
 
+    /**
+     * Index of the most significant block which may be non-zero (BLOCKS if the
+     * number is equal to 0).
+     *
+     * All blocks before this index are equal to zero, so arithmetic loops can
+     * skip them. The index may be lower than the index of the real most
+     * significant non-zero block, it is tightened when leading empty blocks are
+     * counted.
+     */
+    private int firstSignificantBlock = BLOCKS;
+
     /**
      * Number's sign (+1 or -1).
      */
@@ -61,9 +72,22 @@ public class BigNum {
     private final static SecureRandom generator = new SecureRandom();
 
     /**
-     * Pool used for creating temporary big integers.
+     * Smallest allowed Karatsuba threshold (shorter operands would not get
+     * shorter after splitting).
+     */
+    public static final int MIN_KARATSUBA_THRESHOLD = 4;
+
+    /**
+     * Minimum number of blocks of both factors for which multiply and square
+     * use Karatsuba's algorithm (it can be set with the system property
+     * pl.kryptografia.elgamal.bignum.BigNum.karatsubaThreshold).
+     *
+     * The default is the crossover measured by KaratsubaBenchmark of the
+     * Benchmarks module: one level of Karatsuba's algorithm is faster from 64
+     * blocks (2048-bit factors) on, at 48 blocks it is not.
      */
-    private final static BigNumPool pool = BigNumPool.getInstance();
+    private static volatile int karatsubaThreshold = Math.max(MIN_KARATSUBA_THRESHOLD,
+            Integer.getInteger(BigNum.class.getName() + ".karatsubaThreshold", 64));
 
     // beginMask[i] can be used to extract first i bits from long
     private final static long beginMask[] = new long[BLOCK_SIZE + 1];
@@ -126,141 +150,603 @@ public class BigNum {
      * @param x Multiplier.
      */
     public void multiply(BigNum x) {
+        BigNumPool pool = BigNumPool.getInstance();
         pool.open();
 
         BigNum result = pool.get();
         result.initializeFromBigNum(BigNum.ZERO);
 
-        // multiply each block from this number by each block from number x
-        // only non-zero blocks are considered (see method description)
-        for (int i = BLOCKS / 2; i < BLOCKS; ++i) {
-            for (int j = BLOCKS / 2; j < BLOCKS; ++j) {
-                long product = number[i] * x.number[j];
+        // only non-zero blocks from the least significant half are considered
+        // (see method description)
+        int myFirstBlock = Math.max(BLOCKS / 2, countLeadingEmptyBlocks());
+        int xFirstBlock = Math.max(BLOCKS / 2, x.countLeadingEmptyBlocks());
+
+        // long factors of similar length are multiplied with Karatsuba's
+        // algorithm
+        int threshold = karatsubaThreshold;
+        if (BLOCKS - myFirstBlock >= threshold && BLOCKS - xFirstBlock >= threshold) {
+            multiplyKaratsuba(number, myFirstBlock, x.number, xFirstBlock, result, threshold, pool);
+        } else {
+            multiplyColumnwise(number, myFirstBlock, x.number, xFirstBlock, result);
+        }
+
+        copyBlockwise(result);
+        sign = sign * x.sign;
+
+        pool.close();
+    }
+
+    /**
+     * Multiplies two block arrays using Karatsuba's algorithm and stores the
+     * product in the result.
+     *
+     * The shorter factor is padded with zeros so both factors have the same
+     * length.
+     *
+     * @param a Blocks of the multiplicand.
+     * @param aFirstBlock Most significant block of the multiplicand which
+     * should be considered.
+     * @param b Blocks of the multiplier.
+     * @param bFirstBlock Most significant block of the multiplier which should
+     * be considered.
+     * @param result Number for the product (it must not share blocks with a or
+     * b and it should be equal to zero).
+     * @param threshold Length below which factors are multiplied by the
+     * schoolbook method.
+     * @param pool Open pool of the calling thread (block arrays of the factors
+     * and of the product are taken from it).
+     */
+    private static void multiplyKaratsuba(long[] a, int aFirstBlock, long[] b, int bFirstBlock, BigNum result,
+            int threshold, BigNumPool pool) {
+        int length = BLOCKS - Math.min(aFirstBlock, bFirstBlock);
+
+        // the recursion works on blocks ordered from the least significant one
+        long[] aBlocks = pool.get().scratchBlocks();
+        long[] bBlocks = pool.get().scratchBlocks();
+        reverseBlocks(a, aFirstBlock, aBlocks, length);
+        reverseBlocks(b, bFirstBlock, bBlocks, length);
+
+        long[] product = pool.get().scratchBlocks();
+        long[] scratch = pool.getScratch(karatsubaScratchSize(length, threshold));
+        karatsuba(aBlocks, 0, bBlocks, 0, length, product, 0, scratch, 0, threshold);
+
+        storeProduct(product, length, result);
+    }
+
+    /**
+     * Squares a block array using Karatsuba's algorithm and stores the square
+     * in the result.
+     *
+     * @param a Blocks of the number.
+     * @param length Number of blocks of the number which should be considered.
+     * @param result Number for the square (it must not share blocks with a and
+     * it should be equal to zero).
+     * @param threshold Length below which the schoolbook method is used.
+     * @param pool Open pool of the calling thread.
+     */
+    private static void squareKaratsuba(long[] a, int length, BigNum result, int threshold, BigNumPool pool) {
+        long[] aBlocks = pool.get().scratchBlocks();
+        reverseBlocks(a, BLOCKS - length, aBlocks, length);
+
+        long[] square = pool.get().scratchBlocks();
+        long[] scratch = pool.getScratch(karatsubaScratchSize(length, threshold));
+        karatsubaSquare(aBlocks, 0, length, square, 0, scratch, 0, threshold);
 
-                if (product == 0) {
-                    continue;
+        storeProduct(square, length, result);
+    }
+
+    /**
+     * Copies blocks of a number in the reverse order (from the least
+     * significant one) and pads them with zeros.
+     *
+     * @param x Blocks of the number.
+     * @param firstBlock Most significant block which should be copied.
+     * @param result Array for the blocks.
+     * @param length Number of blocks to store (not less than the number of
+     * copied blocks).
+     */
+    private static void reverseBlocks(long[] x, int firstBlock, long[] result, int length) {
+        int copied = BLOCKS - firstBlock;
+        for (int i = 0; i < copied; ++i) {
+            result[i] = x[BLOCKS - 1 - i];
+        }
+        for (int i = copied; i < length; ++i) {
+            result[i] = 0;
+        }
+    }
+
+    /**
+     * Stores a product computed by Karatsuba's algorithm in a number.
+     *
+     * @param product Blocks of the product (the least significant one first).
+     * @param length Number of blocks of the factors.
+     * @param result Number for the product (it should be equal to zero).
+     */
+    private static void storeProduct(long[] product, int length, BigNum result) {
+        // blocks of the product which do not fit into the format are ignored
+        int productLength = Math.min(2 * length, BLOCKS);
+        for (int i = 0; i < productLength; ++i) {
+            result.number[BLOCKS - 1 - i] = product[i];
+        }
+        result.firstSignificantBlock = Math.min(result.firstSignificantBlock, BLOCKS - productLength);
+    }
+
+    /**
+     * Multiplies two numbers of n blocks using Karatsuba's algorithm.
+     *
+     * Factors are split into halves a = a1 * B + a0 and b = b1 * B + b0, then
+     * a * b = a1 * b1 * B^2 + ((a0 + a1) * (b0 + b1) - a0 * b0 - a1 * b1) * B
+     * + a0 * b0 which needs three multiplications of halves instead of four.
+     *
+     * All arrays hold blocks from the least significant one.
+     *
+     * @param a Blocks of the multiplicand.
+     * @param aFrom Index of the least significant block of the multiplicand.
+     * @param b Blocks of the multiplier.
+     * @param bFrom Index of the least significant block of the multiplier.
+     * @param n Number of blocks of both factors.
+     * @param result Array for the product (2 * n blocks are overwritten).
+     * @param resultFrom Index of the least significant block of the product.
+     * @param scratch Array for intermediate values.
+     * @param scratchFrom First index of the scratch array which may be used.
+     * @param threshold Length below which the schoolbook method is used.
+     */
+    private static void karatsuba(long[] a, int aFrom, long[] b, int bFrom, int n,
+            long[] result, int resultFrom, long[] scratch, int scratchFrom, int threshold) {
+        if (n < threshold) {
+            for (int i = 0; i < 2 * n; ++i) {
+                result[resultFrom + i] = 0;
+            }
+            for (int i = 0; i < n; ++i) {
+                long multiplier = a[aFrom + i];
+                long carry = 0;
+                for (int j = 0; j < n; ++j) {
+                    // at most (2^32 - 1)^2 + 2 * (2^32 - 1) = 2^64 - 1
+                    long sum = multiplier * b[bFrom + j] + result[resultFrom + i + j] + carry;
+                    result[resultFrom + i + j] = sum & 0xFFFFFFFFL;
+                    carry = sum >>> 32;
                 }
+                result[resultFrom + i + n] = carry;
+            }
+            return;
+        }
+
+        // halves (the high ones may be one block longer) and their sums which
+        // may have one more block
+        int low = n / 2;
+        int high = n - low;
+        int sumLength = high + 1;
+
+        // a0 * b0 and a1 * b1 go straight to the result
+        karatsuba(a, aFrom, b, bFrom, low, result, resultFrom, scratch, scratchFrom, threshold);
+        karatsuba(a, aFrom + low, b, bFrom + low, high, result, resultFrom + 2 * low, scratch, scratchFrom,
+                threshold);
+
+        int aSum = scratchFrom;
+        int bSum = aSum + sumLength;
+        int middle = bSum + sumLength;
+        addHalves(a, aFrom, low, high, scratch, aSum);
+        addHalves(b, bFrom, low, high, scratch, bSum);
+        karatsuba(scratch, aSum, scratch, bSum, sumLength, scratch, middle,
+                scratch, middle + 2 * sumLength, threshold);
+
+        addMiddleTerm(result, resultFrom, n, scratch, middle);
+    }
+
+    /**
+     * Squares a number of n blocks using Karatsuba's algorithm.
+     *
+     * The number is split into halves a = a1 * B + a0, then
+     * a^2 = a1^2 * B^2 + ((a0 + a1)^2 - a0^2 - a1^2) * B + a0^2 which needs
+     * three squares of halves. Below the threshold every product of two
+     * different blocks is computed once and doubled.
+     *
+     * @param a Blocks of the number (the least significant one first).
+     * @param aFrom Index of the least significant block of the number.
+     * @param n Number of blocks of the number.
+     * @param result Array for the square (2 * n blocks are overwritten).
+     * @param resultFrom Index of the least significant block of the square.
+     * @param scratch Array for intermediate values.
+     * @param scratchFrom First index of the scratch array which may be used.
+     * @param threshold Length below which the schoolbook method is used.
+     */
+    private static void karatsubaSquare(long[] a, int aFrom, int n,
+            long[] result, int resultFrom, long[] scratch, int scratchFrom, int threshold) {
+        if (n < threshold) {
+            for (int i = 0; i < 2 * n; ++i) {
+                result[resultFrom + i] = 0;
+            }
 
-                // when two blocks are multiplied their positions need to be 
-                // considered to shift the result left properly
-                int position = i + j - BLOCKS;
+            // products of different blocks
+            for (int i = 0; i < n; ++i) {
+                long multiplier = a[aFrom + i];
+                long carry = 0;
+                for (int j = i + 1; j < n; ++j) {
+                    long sum = multiplier * a[aFrom + j] + result[resultFrom + i + j] + carry;
+                    result[resultFrom + i + j] = sum & 0xFFFFFFFFL;
+                    carry = sum >>> 32;
+                }
+                result[resultFrom + i + n] = carry;
+            }
 
-                // add the result of this multiplication to the global result
-                result.addLongOnPosition(product, position);
+            // doubled and increased by squares of blocks
+            long shiftedOut = 0;
+            long carry = 0;
+            for (int i = 0; i < n; ++i) {
+                long square = a[aFrom + i] * a[aFrom + i];
+
+                long block = result[resultFrom + 2 * i];
+                long sum = ((block << 1) & 0xFFFFFFFFL) + shiftedOut + (square & 0xFFFFFFFFL) + carry;
+                shiftedOut = block >>> 31;
+                result[resultFrom + 2 * i] = sum & 0xFFFFFFFFL;
+                carry = sum >>> 32;
+
+                block = result[resultFrom + 2 * i + 1];
+                sum = ((block << 1) & 0xFFFFFFFFL) + shiftedOut + (square >>> 32) + carry;
+                shiftedOut = block >>> 31;
+                result[resultFrom + 2 * i + 1] = sum & 0xFFFFFFFFL;
+                carry = sum >>> 32;
             }
+            return;
+        }
+
+        int low = n / 2;
+        int high = n - low;
+        int sumLength = high + 1;
+
+        // a0^2 and a1^2 go straight to the result
+        karatsubaSquare(a, aFrom, low, result, resultFrom, scratch, scratchFrom, threshold);
+        karatsubaSquare(a, aFrom + low, high, result, resultFrom + 2 * low, scratch, scratchFrom, threshold);
+
+        int sum = scratchFrom;
+        int middle = sum + sumLength;
+        addHalves(a, aFrom, low, high, scratch, sum);
+        karatsubaSquare(scratch, sum, sumLength, scratch, middle, scratch, middle + 2 * sumLength, threshold);
+
+        addMiddleTerm(result, resultFrom, n, scratch, middle);
+    }
+
+    /**
+     * Finishes a step of Karatsuba's algorithm: subtracts the products of the
+     * low and the high halves from the product of the sums of halves and adds
+     * the difference shifted by the length of the low half to the result.
+     *
+     * @param result Blocks of the products of the halves (2 * n blocks, the
+     * least significant one first), replaced with the whole product.
+     * @param resultFrom Index of the least significant block of the result.
+     * @param n Number of blocks of the factors.
+     * @param scratch Array with the product of the sums of halves.
+     * @param middle Index of the least significant block of the product of
+     * the sums (it has 2 * (n - n / 2 + 1) blocks).
+     */
+    private static void addMiddleTerm(long[] result, int resultFrom, int n, long[] scratch, int middle) {
+        int low = n / 2;
+        int high = n - low;
+        int middleLength = 2 * (high + 1);
+
+        // middle = a0 * b1 + a1 * b0
+        subtractBlocks(scratch, middle, middleLength, result, resultFrom, 2 * low);
+        subtractBlocks(scratch, middle, middleLength, result, resultFrom + 2 * low, 2 * high);
+
+        // result += middle * B (the product fits into 2 * n blocks so blocks
+        // of the middle term beyond it are equal to zero)
+        long carry = 0;
+        for (int i = 0; low + i < 2 * n; ++i) {
+            long sum = result[resultFrom + low + i] + (i < middleLength ? scratch[middle + i] : 0) + carry;
+            result[resultFrom + low + i] = sum & 0xFFFFFFFFL;
+            carry = sum >>> 32;
+        }
+    }
+
+    /**
+     * Adds the low and the high half of a number.
+     *
+     * @param x Blocks of the number (the least significant one first).
+     * @param from Index of the least significant block.
+     * @param low Number of blocks of the low half.
+     * @param high Number of blocks of the high half (not less than low).
+     * @param result Array for the sum (high + 1 blocks).
+     * @param resultFrom Index of the least significant block of the sum.
+     */
+    private static void addHalves(long[] x, int from, int low, int high, long[] result, int resultFrom) {
+        long carry = 0;
+        for (int i = 0; i < high; ++i) {
+            long sum = x[from + low + i] + (i < low ? x[from + i] : 0) + carry;
+            result[resultFrom + i] = sum & 0xFFFFFFFFL;
+            carry = sum >>> 32;
+        }
+        result[resultFrom + high] = carry;
+    }
+
+    /**
+     * Subtracts a block array from another one (the difference has to be
+     * non-negative).
+     *
+     * @param x Blocks of the minuend (replaced with the difference, the least
+     * significant block first).
+     * @param from Index of the least significant block of the minuend.
+     * @param length Number of blocks of the minuend.
+     * @param y Blocks of the subtrahend (the least significant block first).
+     * @param yFrom Index of the least significant block of the subtrahend.
+     * @param yLength Number of blocks of the subtrahend (not greater than
+     * length).
+     */
+    private static void subtractBlocks(long[] x, int from, int length, long[] y, int yFrom, int yLength) {
+        long borrow = 0;
+        for (int i = 0; i < length && (i < yLength || borrow != 0); ++i) {
+            long difference = x[from + i] - (i < yLength ? y[yFrom + i] : 0) - borrow;
+            borrow = difference >>> 63;
+            x[from + i] = difference & 0xFFFFFFFFL;
+        }
+    }
+
+    /**
+     * Returns the size of the scratch array needed to multiply (or square)
+     * numbers of given length with Karatsuba's algorithm.
+     *
+     * @param n Number of blocks of the factors.
+     * @param threshold Length below which the schoolbook method is used.
+     * @return Number of scratch blocks.
+     */
+    private static int karatsubaScratchSize(int n, int threshold) {
+        if (n < threshold) {
+            return 0;
+        }
+
+        // both sums and their product, the halves can reuse the same space
+        int sumLength = n - n / 2 + 1;
+        return 4 * sumLength + Math.max(karatsubaScratchSize(sumLength, threshold),
+                karatsubaScratchSize(n - n / 2, threshold));
+    }
+
+    /**
+     * Returns the minimum length of factors (in blocks) for which
+     * multiplication uses Karatsuba's algorithm.
+     *
+     * @return Karatsuba threshold.
+     */
+    public static int getKaratsubaThreshold() {
+        return karatsubaThreshold;
+    }
+
+    /**
+     * Sets the minimum length of factors (in blocks) for which multiplication
+     * uses Karatsuba's algorithm.
+     *
+     * @param threshold Number of blocks, at least MIN_KARATSUBA_THRESHOLD
+     * (values greater than BLOCKS / 2 turn Karatsuba's algorithm off).
+     */
+    public static void setKaratsubaThreshold(int threshold) {
+        if (threshold < MIN_KARATSUBA_THRESHOLD) {
+            throw new IllegalArgumentException("Karatsuba threshold has to be at least " + MIN_KARATSUBA_THRESHOLD);
+        }
+        karatsubaThreshold = threshold;
+    }
+
+    /**
+     * Squares this number.
+     *
+     * Works like multiply(this) but every product of two different blocks is
+     * computed once and doubled, so about half of the block multiplications
+     * are saved. Numbers of at least getKaratsubaThreshold() blocks are
+     * squared with Karatsuba's algorithm.
+     */
+    public void square() {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        BigNum result = pool.get();
+        result.initializeFromBigNum(BigNum.ZERO);
+
+        // only non-zero blocks from the least significant half are considered
+        // (see multiply)
+        int firstBlock = Math.max(BLOCKS / 2, countLeadingEmptyBlocks());
+        int threshold = karatsubaThreshold;
+        if (BLOCKS - firstBlock >= threshold) {
+            squareKaratsuba(number, BLOCKS - firstBlock, result, threshold, pool);
+        } else {
+            squareColumns(number, BLOCKS - firstBlock, result);
         }
 
         copyBlockwise(result);
-        sign = sign * x.sign;
+        sign = 1;
 
         pool.close();
     }
 
     /**
-     * Adds given value to this big number.
+     * Squares a block array using product scanning and stores the square in
+     * the result.
      *
-     * @param x Value to add to this number.
+     * Column c of the square is the sum of a_i * a_j for i + j = c, the
+     * products with i != j appear twice so they are summed once and the sum is
+     * doubled.
+     *
+     * @param a Blocks of the number.
+     * @param length Number of blocks of the number which should be considered.
+     * @param result Number for the square (it must not share blocks with a and
+     * it should be equal to zero).
      */
-    public void add(BigNum x) {
-
-        if (sign == x.sign) {
-            // when both numbers are positive or negative it is just a simple 
-            // bitwise sum
-            long sum = 0;
-            for (int i = BLOCKS - 1; i >= 0; --i) {
-                sum += number[i] + x.number[i];
-                // put least significant 32 bits into the result
-                number[i] = extractLast32Bits(sum);
-                // the result may overflow 32 bits so the next result is
-                // calculated using the rest of the sum
-                sum >>>= 32;
+    private static void squareColumns(long[] a, int length, BigNum result) {
+        int columns = Math.min(2 * length, BLOCKS);
+        result.firstSignificantBlock = BLOCKS - columns;
+
+        // sums of least and most significant halves of the products in the
+        // current column (see multiplyColumns)
+        long low = 0;
+        long high = 0;
+
+        for (int column = 0; column < columns; ++column) {
+            // products of different blocks (i < column - i)
+            long pairLow = 0;
+            long pairHigh = 0;
+            for (int i = Math.max(0, column - length + 1); i < column - i; ++i) {
+                long product = a[BLOCKS - 1 - i] * a[BLOCKS - 1 - column + i];
+                pairLow += product & 0xFFFFFFFFL;
+                pairHigh += product >>> 32;
             }
-        } else {
-            // when one number is positive and the other is negative we need to
-            // constitute which one is greater as per its absolute value
-            BigNum a = new BigNum(this);
-            BigNum b = new BigNum(x);
-
-            boolean thisIsGreater = true;
-
-            if (!absGreaterOrEqualTo(x)) {
-                a.initializeFromBigNum(x);
-                b.initializeFromBigNum(this);
-                thisIsGreater = false;
-            }
-            // now we are sure that |a| >= |b|
-
-            // we subtract absolute values of the numbers
-            a.absSubtract(b);
-            // absolute value of the result is equal to absolute value of above
-            // subtraction
-            copyBlockwise(a);
-
-            // now we need to check if the result is positive or negative
-            // |this| >= |x| # this >= 0 # result >= 0
-            //        0      #     0     #    1
-            //        0      #     1     #    0
-            //        1      #     0     #    0
-            //        1      #     1     #    1
-            // the conclusion is that the result is non-negative if and only if
-            // these two logical values are equal
-            if (thisIsGreater == (sign == 1)) {
-                sign = 1;
-            } else {
-                sign = -1;
+            low += pairLow << 1;
+            high += pairHigh << 1;
+
+            // square of the middle block
+            if ((column & 1) == 0 && column / 2 < length) {
+                long block = a[BLOCKS - 1 - column / 2];
+                long product = block * block;
+                low += product & 0xFFFFFFFFL;
+                high += product >>> 32;
             }
+
+            result.number[BLOCKS - 1 - column] = low & 0xFFFFFFFFL;
+            low = (low >>> 32) + high;
+            high = 0;
         }
     }
 
     /**
-     * Adds to this number a long number starting at given block.
+     * Multiplies two block arrays using product scanning and stores the
+     * product in the result array.
+     *
+     * Partial products are accumulated column by column (all products with the
+     * same position at once) so the carry is propagated only once per column
+     * instead of once per partial product. Blocks of the product which do not
+     * fit into the format are ignored.
      *
-     * @param x Non-negative Long number to add.
-     * @param position First block where x should be added.
+     * @param a Blocks of the multiplicand.
+     * @param aFirstBlock Most significant block of the multiplicand which
+     * should be considered.
+     * @param b Blocks of the multiplier.
+     * @param bFirstBlock Most significant block of the multiplier which should
+     * be considered.
+     * @param result Number for the product (it must not share blocks with a or
+     * b and it should be equal to zero).
      */
-    private void addLongOnPosition(long x, int position) {
-        // split long number into two 32 bit blocks
-        long firstBlock = (x >>> 32);
-        long secondBlock = extractLast32Bits(x);
+    private static void multiplyColumnwise(long[] a, int aFirstBlock, long[] b, int bFirstBlock, BigNum result) {
+        // lengths of the operands in blocks
+        int aLength = BLOCKS - aFirstBlock;
+        int bLength = BLOCKS - bFirstBlock;
 
-        // add least significant block
-        number[position + 1] += secondBlock;
-        // handle possible overflow
-        number[position] += (number[position + 1] >>> 32);
-        number[position + 1] = extractLast32Bits(number[position + 1]);
+        multiplyColumns(a, BLOCKS - 1, aLength, b, BLOCKS - 1, bLength,
+                result, 0, Math.min(aLength + bLength, BLOCKS));
+    }
 
-        // add most significant block
-        number[position] += firstBlock;
+    /**
+     * Computes given range of columns of the product of two block arrays.
+     *
+     * Columns are numbered from the least significant one. All columns below
+     * the range are computed only to determine the carry, columns from the
+     * range are stored in the least significant blocks of the result.
+     *
+     * @param a Blocks of the multiplicand.
+     * @param aLast Index of the least significant block of the multiplicand.
+     * @param aLength Number of blocks of the multiplicand.
+     * @param b Blocks of the multiplier.
+     * @param bLast Index of the least significant block of the multiplier.
+     * @param bLength Number of blocks of the multiplier.
+     * @param result Number for the product (it must not share blocks with a or
+     * b).
+     * @param fromColumn First column to store (inclusive).
+     * @param toColumn Last column to store (exclusive).
+     */
+    private static void multiplyColumns(long[] a, int aLast, int aLength, long[] b, int bLast, int bLength,
+            BigNum result, int fromColumn, int toColumn) {
+        if (toColumn > fromColumn) {
+            result.firstSignificantBlock = Math.min(result.firstSignificantBlock, BLOCKS - toColumn + fromColumn);
+        }
 
-        // handle overflows as long as they occur
-        int current = position;
-        while (current > 0 && (number[current] >>> 32) != 0) {
-            // move overflowing 1 bit to more significant block
-            number[current - 1] += 1;
-            // remove overflowing 1 bit from current block
-            number[current] = extractLast32Bits(number[current]);
+        // sum of least significant halves of partial products in the current
+        // column (together with the carry from the previous column)
+        long low = 0;
+        // sum of most significant halves of partial products in the current
+        // column which has to be carried to the next column
+        long high = 0;
+
+        for (int column = 0; column < toColumn; ++column) {
+            // i is the position of the block of a counted from the least
+            // significant one, the block of b is on position (column - i)
+            int iFrom = Math.max(0, column - bLength + 1);
+            int iTo = Math.min(column, aLength - 1);
+
+            for (int i = iFrom; i <= iTo; ++i) {
+                // both blocks have only 32 relevant bits so the product fits
+                // into 64 bits if we treat it as unsigned
+                long product = a[aLast - i] * b[bLast - column + i];
+                low += product & 0xFFFFFFFFL;
+                high += product >>> 32;
+            }
 
-            --current;
+            if (column >= fromColumn) {
+                result.number[BLOCKS - 1 - column + fromColumn] = low & 0xFFFFFFFFL;
+            }
+            low = (low >>> 32) + high;
+            high = 0;
         }
     }
 
+    /**
+     * Adds given value to this big number.
+     *
+     * @param x Value to add to this number.
+     */
+    public void add(BigNum x) {
+        addSigned(x, x.sign);
+    }
+
     /**
      * Subtract given big number from this number.
      *
      * @param x Subtrahent.
      */
     public void subtract(BigNum x) {
-        pool.open();
-
-        BigNum y = pool.get();
-        y.initializeFromBigNum(x);
+        // addition handles all combinations of positive and negative numbers
+        // so we replace subtraction with addition of the opposite number
+        addSigned(x, -x.sign);
+    }
 
-        // add function handles all combinations of positive and negative 
-        // numbers so we replace subtraction with addition
-        y.setSign(-y.sign);
-        add(y);
+    /**
+     * Adds given value with given sign to this big number.
+     *
+     * The result is computed in place, x is not modified (it may be this
+     * number).
+     *
+     * @param x Value whose absolute value is added.
+     * @param xSign Sign used instead of the sign of x.
+     */
+    private void addSigned(BigNum x, int xSign) {
 
-        pool.close();
+        if (sign == xSign) {
+            // when both numbers are positive or negative it is just a simple 
+            // bitwise sum
+            // blocks before the first significant block of both numbers are
+            // empty so only the carry may reach them
+            int first = Math.min(firstSignificantBlock, x.firstSignificantBlock);
+            long sum = 0;
+            for (int i = BLOCKS - 1; i >= first; --i) {
+                sum += number[i] + x.number[i];
+                // put least significant 32 bits into the result
+                number[i] = extractLast32Bits(sum);
+                // the result may overflow 32 bits so the next result is
+                // calculated using the rest of the sum
+                sum >>>= 32;
+            }
+            if (sum != 0 && first > 0) {
+                number[first - 1] = sum;
+                --first;
+            }
+            firstSignificantBlock = first;
+        } else if (absGreaterOrEqualTo(x)) {
+            // when one number is positive and the other is negative we
+            // subtract the lesser absolute value from the greater one and the
+            // result has the sign of the number with the greater absolute
+            // value
+            absSubtract(x);
+            if (firstSignificantBlock == BLOCKS) {
+                // zero is always positive
+                sign = 1;
+            }
+        } else {
+            absSubtractFrom(x);
+            sign = xSign;
+        }
     }
 
     /**
@@ -271,27 +757,51 @@ public class BigNum {
      */
     public void absSubtract(BigNum x) {
 
-        // the value of the least significant bit borrowed from more significant
-        // block
-        long borrow = (1L << 32);
+        // the value borrowed from the current block by less significant block
+        long borrow = 0;
 
         // we subtract block by block, starting from the least significant ones
-        for (int i = BLOCKS - 1; i >= 0; --i) {
-            if (x.number[i] != 0) {
-                // if our block is lesser than corresponding block from x, we need 
-                // to borrow one bit
-                if (number[i] < x.number[i]) {
-                    // least significant bit in the previous block is worth 1
-                    --number[i - 1];
-                    // for us it is worth 2^33 because it is taken from more 
-                    // significant block
-                    number[i] += borrow;
-                }
-                // now we are sure that our block is greater then corresponding 
-                // block in x
-                number[i] -= x.number[i];
-            }
+        // (blocks before the first significant block of x change only if
+        // they have to lend the borrowed bit)
+        int i = BLOCKS - 1;
+        for (; i >= 0 && (i >= x.firstSignificantBlock || borrow != 0); --i) {
+            long difference = number[i] - x.number[i] - borrow;
+            // if our block is lesser than corresponding block from x, we need 
+            // to borrow one bit from more significant block (it may have to
+            // borrow as well if it is empty)
+            borrow = difference >>> 63;
+            // borrowed bit is worth 2^32 for us so the result is just the last
+            // 32 bits of the difference
+            number[i] = extractLast32Bits(difference);
         }
+        firstSignificantBlock = Math.min(firstSignificantBlock, i + 1);
+
+        // the most significant blocks often cancel out
+        countLeadingEmptyBlocks();
+    }
+
+    /**
+     * Replaces this number with the difference of absolute values of given
+     * number and this number (works for non-negative result).
+     *
+     * @param x Value to subtract this number from.
+     */
+    private void absSubtractFrom(BigNum x) {
+        // the value borrowed from the current block by less significant block
+        long borrow = 0;
+
+        // |x| > |this| so no borrow is left after the first significant block
+        // of x
+        int first = Math.min(firstSignificantBlock, x.firstSignificantBlock);
+        for (int i = BLOCKS - 1; i >= first; --i) {
+            long difference = x.number[i] - number[i] - borrow;
+            borrow = difference >>> 63;
+            number[i] = extractLast32Bits(difference);
+        }
+        firstSignificantBlock = first;
+
+        // the most significant blocks often cancel out
+        countLeadingEmptyBlocks();
     }
 
     /**
@@ -302,86 +812,92 @@ public class BigNum {
      * @param modulus Modulus.
      */
     public void modulo(BigNum modulus) {
-        pool.open();
-        BigNum x = pool.get();
-
-        // we subtract multiples of modulus until we get only the reminder
-        while (absGreaterOrEqualTo(modulus)) {
-            // get a copy of modulus
-            x.initializeFromBigNum(modulus);
+        int originalSign = sign;
 
-            // shift modulus left as much as you can
-            // this operation is equivalent to finding modulus * 2^k with the
-            // greatest k possible
-            int shift = findMaximumLeftShift(x);
-            x.shiftLeft(shift);
+        // only the remainder is needed
+        divideMagnitudes(modulus, null, this);
 
-            // x is now some multiple of modulus so we can subtract it
-            absSubtract(x);
-        }
-
-        // if this number is negative we need to correct the remainder
-        if (sign == -1) {
+        // if this number was negative we need to correct the remainder (zero
+        // needs no correction)
+        if (originalSign == -1 && bitLength() != 0) {
+            sign = -1;
             add(modulus);
             sign = 1;
         }
-
-        pool.close();
     }
 
     /**
      * Returns the greates common divisor of this number and x.
      *
+     * Binary algorithm is used: common factors of two are removed first and
+     * then the lesser odd number is subtracted from the greater one which
+     * needs only subtractions and shifts (no divisions).
+     *
      * This number should be non negative for this method to work properly.
      *
      * @param x A non negative number.
      */
     public void gcd(BigNum x) {
-        BigNum a = new BigNum(this);
-        BigNum b = new BigNum(x);
-        if (b.absGreaterThan(a)) {
-            BigNum temp = new BigNum(b);
-            b = a;
-            a = temp;
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        BigNum a = pool.get();
+        a.initializeFromBigNum(this);
+        BigNum b = pool.get();
+        b.initializeFromBigNum(x);
+
+        // gcd(a, 0) = a
+        if (b.bitLength() == 0) {
+            sign = 1;
+            pool.close();
+            return;
+        } else if (a.bitLength() == 0) {
+            copyBlockwise(b);
+            sign = 1;
+            pool.close();
+            return;
         }
 
-        while (b.absGreaterThan(BigNum.ZERO)) {
-            BigNum temp = new BigNum(a);
-            a = b;
-            temp.modulo(b);
-            b = temp;
+        // the greatest power of two dividing both numbers
+        int commonZeros = Math.min(a.numberOfTrailingZeros(), b.numberOfTrailingZeros());
+        a.shiftRight(a.numberOfTrailingZeros());
+
+        // a is odd and it does not change the gcd so b is odd after every
+        // iteration too
+        while (b.bitLength() != 0) {
+            b.shiftRight(b.numberOfTrailingZeros());
+
+            // keep a not greater than b
+            if (a.compareAbs(b) > 0) {
+                BigNum temp = a;
+                a = b;
+                b = temp;
+            }
+
+            // difference of two odd numbers is even
+            b.absSubtract(a);
         }
 
+        a.shiftLeft(commonZeros);
         copyBlockwise(a);
+        sign = 1;
+
+        pool.close();
     }
 
     public boolean isDivisible(BigNum divisor) {
-        pool.open();
-        // copy of this number not to modify the original
-        BigNum thisCopy = pool.get();
-        thisCopy.initializeFromBigNum(this);
-        // preallocated number for a copy of divisor
-        BigNum x = pool.get();
-
-        // we subtract multiples of divisor until we get only the reminder
-        while (thisCopy.absGreaterOrEqualTo(divisor)) {
-            // get a copy of divisor
-            x.initializeFromBigNum(divisor);
-
-            // shift divisor left as much as you can
-            // this operation is equivalent to finding divisor * 2^k with the
-            // greatest k possible
-            int shift = thisCopy.findMaximumLeftShift(x);
-            x.shiftLeft(shift);
-
-            // x is now some multiple of divisor so we can subtract it
-            thisCopy.absSubtract(x);
+        // a multiple of divisor has at least as many trailing zeros as divisor
+        if (divisor.numberOfTrailingZeros() > numberOfTrailingZeros()) {
+            return false;
         }
 
-        // if the number somehow became zero with minus sign, we need to adjust
-        // the sign to perform equals method
-        sign = 1;
-        boolean result = thisCopy.equals(BigNum.ZERO);
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+        // preallocated number for the remainder (this number is not modified)
+        BigNum remainder = pool.get();
+
+        divideMagnitudes(divisor, null, remainder);
+        boolean result = remainder.bitLength() == 0;
 
         pool.close();
 
@@ -394,43 +910,241 @@ public class BigNum {
      * @param divisor Number to divide by.
      */
     public void divide(BigNum divisor) {
+        int resultSign = sign * divisor.sign;
+
+        divideMagnitudes(divisor, this, null);
+        sign = resultSign;
+    }
+
+    /**
+     * Divides this number by given number and stores the remainder in another
+     * number.
+     *
+     * Quotient and remainder come from the same long division so this is
+     * cheaper than calling divide and modulo separately. The quotient is
+     * truncated (its sign is the product of the signs), the remainder is the
+     * non-negative remainder of the absolute values.
+     *
+     * @param divisor Number to divide by.
+     * @param remainder Number for the remainder (it must not be this number).
+     */
+    public void divideAndRemainder(BigNum divisor, BigNum remainder) {
+        int resultSign = sign * divisor.sign;
+
+        divideMagnitudes(divisor, this, remainder);
+        sign = resultSign;
+    }
+
+    /**
+     * Divides this number by given number and returns the remainder.
+     *
+     * @param divisor Number to divide by.
+     * @return Remainder of the division (see divideAndRemainder(BigNum,
+     * BigNum)).
+     */
+    public BigNum divideAndRemainder(BigNum divisor) {
+        BigNum remainder = new BigNum();
+        divideAndRemainder(divisor, remainder);
+        return remainder;
+    }
+
+    /**
+     * Divides absolute value of this number by absolute value of given number
+     * using normalized long division (Knuth's algorithm D).
+     *
+     * Every step estimates one 32-bit block of the quotient from the two most
+     * significant blocks of the partial remainder and the most significant
+     * block of the divisor. Thanks to normalization (the divisor is shifted so
+     * that its most significant bit is set) the estimate is at most two too
+     * large and it is corrected before the multiple of the divisor is
+     * subtracted.
+     *
+     * Both results are written after all blocks are read, so the quotient or
+     * the remainder may be this number or the divisor.
+     *
+     * @param divisor Non-zero divisor.
+     * @param quotient Number for the quotient or null if it is not needed.
+     * @param remainder Number for the remainder or null if it is not needed.
+     */
+    private void divideMagnitudes(BigNum divisor, BigNum quotient, BigNum remainder) {
+        int divisorFirstBlock = divisor.countLeadingEmptyBlocks();
+        if (divisorFirstBlock == BLOCKS) {
+            throw new ArithmeticException("Division by zero");
+        }
+
+        // if this number is less than the divisor there is nothing to divide
+        if (compareAbs(divisor) < 0) {
+            if (remainder != null) {
+                remainder.copyBlockwise(this);
+                remainder.sign = 1;
+            }
+            if (quotient != null) {
+                quotient.copyBlockwise(BigNum.ZERO);
+                quotient.sign = 1;
+            }
+            return;
+        }
+
+        // lengths in blocks (this number is at least as long as the divisor)
+        int divisorLength = BLOCKS - divisorFirstBlock;
+        int length = BLOCKS - firstSignificantBlock;
+
+        // shift which moves the most significant bit of the divisor to the
+        // top of its block
+        int shift = Long.numberOfLeadingZeros(divisor.number[divisorFirstBlock]) - BLOCK_SIZE;
+
+        // normalized operands (the least significant block first) and the
+        // quotient are kept in scratch arrays of the thread, the dividend gets
+        // one more block for the bits shifted out (so it may not fit into the
+        // blocks of a BigNum)
+        BigNumPool pool = BigNumPool.getInstance();
         pool.open();
+        long[] u = pool.getScratch(length + 1);
+        long[] v = pool.get().scratchBlocks();
+        long[] q = pool.get().scratchBlocks();
+        int quotientLength = length - divisorLength + 1;
+        u[length] = normalize(number, length, shift, u);
+        normalize(divisor.number, divisorLength, shift, v);
+
+        if (divisorLength == 1) {
+            // short division by a single block
+            long d = v[0];
+            long r = u[length];
+            u[length] = 0;
+            for (int j = length - 1; j >= 0; --j) {
+                long current = (r << BLOCK_SIZE) | u[j];
+                q[j] = divideWord(current, d);
+                r = current - q[j] * d;
+                u[j] = 0;
+            }
+            u[0] = r;
+        } else {
+            long top = v[divisorLength - 1];
+            long second = v[divisorLength - 2];
+
+            for (int j = length - divisorLength; j >= 0; --j) {
+                // estimate the quotient block from the two most significant
+                // blocks of the partial remainder
+                long current = (u[j + divisorLength] << BLOCK_SIZE) | u[j + divisorLength - 1];
+                long qHat = divideWord(current, top);
+                long rHat = current - qHat * top;
+
+                // the third block of the partial remainder and the second block
+                // of the divisor tell if the estimate is too large
+                while (qHat > 0xFFFFFFFFL
+                        || unsignedLess((rHat << BLOCK_SIZE) | u[j + divisorLength - 2], qHat * second)) {
+                    --qHat;
+                    rHat += top;
+                    if (rHat > 0xFFFFFFFFL) {
+                        break;
+                    }
+                }
 
-        BigNum result = pool.get();
-        result.initializeFromBigNum(BigNum.ZERO);
+                // subtract qHat * divisor from the partial remainder
+                long borrow = 0;
+                for (int i = 0; i < divisorLength; ++i) {
+                    long product = qHat * v[i];
+                    long difference = u[i + j] - borrow - (product & 0xFFFFFFFFL);
+                    u[i + j] = difference & 0xFFFFFFFFL;
+                    borrow = (product >>> BLOCK_SIZE) - (difference >> BLOCK_SIZE);
+                }
+                long difference = u[j + divisorLength] - borrow;
+                u[j + divisorLength] = difference & 0xFFFFFFFFL;
+
+                // the estimate was still one too large (rare), so we add the
+                // divisor back
+                if (difference < 0) {
+                    --qHat;
+                    long carry = 0;
+                    for (int i = 0; i < divisorLength; ++i) {
+                        long sum = u[i + j] + v[i] + carry;
+                        u[i + j] = sum & 0xFFFFFFFFL;
+                        carry = sum >>> BLOCK_SIZE;
+                    }
+                    u[j + divisorLength] = (u[j + divisorLength] + carry) & 0xFFFFFFFFL;
+                }
 
-        // we subtract multiples of divisor from the initial number and remember
-        // how many times divisor we subtracted
-        while (absGreaterOrEqualTo(divisor)) {
-            // get a copy of divisor
-            BigNum x = pool.get();
-            x.initializeFromBigNum(divisor);
-            // shift divisor left as much as you can
-            // this operation is equivalent to finding divisor * 2^k with the
-            // greatest k possible
-            int shift = findMaximumLeftShift(x);
-            x.shiftLeft(shift);
-
-            // shift shows how many times divisor was subtracted
-            // we add this value to the result
-            // e. g. if shift was 3 it means we can perform:
-            // this -= divisor * 2^3
-            // we should add 2^3 = 8 to the result and it is the same as setting
-            // an appropriate bit in the result
-            // shift is different in every iteration of the loop so we can set
-            // bit instead of adding
-            result.setBit(BigNum.BITS - shift - 1, 1);
-
-            // x is now some multiple of divisor so we can subtract it
-            absSubtract(x);
+                q[j] = qHat;
+            }
         }
 
-        sign *= divisor.sign;
-        copyBlockwise(result);
+        if (remainder != null) {
+            // the remainder is in the least significant blocks of u and it has
+            // to be shifted back
+            for (int i = 0; i < divisorLength; ++i) {
+                u[i] = ((u[i] >>> shift) | (u[i + 1] << (BLOCK_SIZE - shift))) & 0xFFFFFFFFL;
+            }
+            remainder.replaceMagnitude(u, divisorLength);
+        }
+        if (quotient != null) {
+            quotient.replaceMagnitude(q, quotientLength);
+        }
 
         pool.close();
     }
 
+    /**
+     * Shifts given blocks left by less than one block and stores them in
+     * reversed order (the least significant block first).
+     *
+     * @param blocks Blocks of a number.
+     * @param length Number of significant blocks.
+     * @param shift Shift in bits (less than BLOCK_SIZE).
+     * @param result Array for at least length blocks.
+     * @return Bits shifted out of the most significant block.
+     */
+    private static long normalize(long[] blocks, int length, int shift, long[] result) {
+        long previous = 0;
+        for (int i = 0; i < length; ++i) {
+            long block = blocks[BLOCKS - 1 - i];
+            result[i] = ((block << shift) | (previous >>> (BLOCK_SIZE - shift))) & 0xFFFFFFFFL;
+            previous = block;
+        }
+        return previous >>> (BLOCK_SIZE - shift);
+    }
+
+    /**
+     * Replaces the absolute value of this number with given blocks and makes it
+     * positive.
+     *
+     * @param blocks Blocks (the least significant block first).
+     * @param count Number of blocks.
+     */
+    void replaceMagnitude(long[] blocks, int count) {
+        for (int i = firstSignificantBlock; i < BLOCKS - count; ++i) {
+            number[i] = 0;
+        }
+        for (int i = 0; i < count; ++i) {
+            number[BLOCKS - 1 - i] = blocks[i];
+        }
+        firstSignificantBlock = BLOCKS - count;
+        sign = 1;
+    }
+
+    /**
+     * Divides an unsigned 64-bit number by a number less than 2^32.
+     *
+     * @param dividend Dividend treated as unsigned.
+     * @param divisor Positive divisor less than 2^32.
+     * @return Quotient (treated as unsigned).
+     */
+    private static long divideWord(long dividend, long divisor) {
+        if (dividend >= 0) {
+            return dividend / divisor;
+        }
+
+        // halving the dividend makes it positive, the remainder of the
+        // doubled quotient is less than 2 * divisor so it needs at most one
+        // correction
+        long quotient = ((dividend >>> 1) / divisor) << 1;
+        long remainder = dividend - quotient * divisor;
+        if (remainder >= divisor) {
+            ++quotient;
+        }
+
+        return quotient;
+    }
+
     /**
      * Raises this number to given power and divides the result modulo another
      * given number.
@@ -440,40 +1154,469 @@ public class BigNum {
      * @param exponent Exponent.
      * @param modulus Modulus.
      */
-    public void powerModulo(BigNum exponent, BigNum modulus) {
-        BigNum factor = new BigNum(this);
+    public void powerModulo(BigNum exponent, final BigNum modulus) {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        BigNum factor = pool.get();
+        factor.initializeFromBigNum(this);
         factor.modulo(modulus);
 
-        BigNum result = new BigNum(BigNum.ONE);
+        slidingWindowPower(factor, exponent, BigNum.ONE, new ModularMultiplier() {
 
-        // factor is squared in each step
-        // however we count how many times we need to multiply it and do the 
-        // multiplication only when needed
-        int factorMultiplications = 0;
+            @Override
+            public void multiplyModulo(BigNum x, BigNum y) {
+                x.multiply(y);
+                x.modulo(modulus);
+            }
 
-        // fast modular exponentation is used
-        // we multiply the result on 1 bits of the exponent
-        for (int i = BITS - 1; i >= 0; --i) {
-            if (exponent.getBit(i) == 1) {
+            @Override
+            public void squareModulo(BigNum x) {
+                x.square();
+                x.modulo(modulus);
+            }
+        });
 
-                // perform factor squaring
-                if (factorMultiplications > 0) {
-                    for (int j = 0; j < factorMultiplications; ++j) {
-                        factor.multiply(factor);
-                        factor.modulo(modulus);
-                    }
+        pool.close();
+    }
+
+    /**
+     * Raises this number to given power modulo the modulus of given Montgomery
+     * context.
+     *
+     * All intermediate multiplications are performed in Montgomery form so no
+     * division is needed apart from the initial conversion. Intermediate
+     * values stay in limbs of the context for the whole exponentiation. Signs
+     * of the numbers are ignored.
+     *
+     * @param exponent Exponent.
+     * @param context Montgomery context of the modulus.
+     */
+    public void powerModulo(BigNum exponent, MontgomeryContext context) {
+        context.power(this, exponent);
+    }
+
+    /**
+     * Raises this number to given power modulo the modulus of given Barrett
+     * reducer.
+     *
+     * Signs of the numbers are ignored.
+     *
+     * @param exponent Exponent.
+     * @param reducer Barrett reducer of the modulus.
+     */
+    public void powerModulo(BigNum exponent, BarrettReducer reducer) {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        BigNum factor = pool.get();
+        factor.initializeFromBigNum(this);
+        factor.setSign(1);
+        reducer.reduce(factor);
+
+        slidingWindowPower(factor, exponent, BigNum.ONE, reducer);
 
-                    factorMultiplications = 0;
+        pool.close();
+    }
+
+    /**
+     * Raises given base to given power using left-to-right sliding window
+     * exponentiation and stores the result in this number.
+     *
+     * Odd powers of the base up to 2^width - 1 are precomputed, then the
+     * exponent is scanned from its most significant one bit. Zero bits cost
+     * one squaring each and every window of at most width bits starting and
+     * ending with one costs one multiplication by a precomputed power.
+     *
+     * @param base Reduced base (it is not modified).
+     * @param exponent Exponent (its sign is ignored).
+     * @param one Representation of 1 used by the multiplier.
+     * @param multiplier Modular multiplication used for all products.
+     */
+    private void slidingWindowPower(BigNum base, BigNum exponent, BigNum one, ModularMultiplier multiplier) {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        int exponentBits = exponent.bitLength();
+        int width = windowWidth(exponentBits);
+
+        // powers[i] = base^(2 * i + 1)
+        BigNum[] powers = new BigNum[1 << (width - 1)];
+        powers[0] = pool.get();
+        powers[0].initializeFromBigNum(base);
+        if (powers.length > 1) {
+            BigNum baseSquared = pool.get();
+            baseSquared.initializeFromBigNum(base);
+            multiplier.squareModulo(baseSquared);
+
+            for (int i = 1; i < powers.length; ++i) {
+                powers[i] = pool.get();
+                powers[i].initializeFromBigNum(powers[i - 1]);
+                multiplier.multiplyModulo(powers[i], baseSquared);
+            }
+        }
+
+        BigNum result = pool.get();
+        result.initializeFromBigNum(one);
+        // squaring 1 is pointless so we remember if anything was multiplied
+        boolean resultIsOne = true;
+
+        // bits of the exponent are numbered from the least significant one
+        int current = exponentBits - 1;
+        while (current >= 0) {
+            if (exponent.getBit(BITS - 1 - current) == 0) {
+                if (!resultIsOne) {
+                    multiplier.squareModulo(result);
                 }
+                --current;
+                continue;
+            }
+
+            // find the longest window starting at current bit which has at
+            // most width bits and ends with one
+            int last = Math.max(current - width + 1, 0);
+            while (exponent.getBit(BITS - 1 - last) == 0) {
+                ++last;
+            }
 
-                result.multiply(factor);
-                result.modulo(modulus);
+            int windowValue = 0;
+            for (int i = current; i >= last; --i) {
+                windowValue = (windowValue << 1) | exponent.getBit(BITS - 1 - i);
             }
 
-            ++factorMultiplications;
+            if (resultIsOne) {
+                result.initializeFromBigNum(powers[windowValue >>> 1]);
+                resultIsOne = false;
+            } else {
+                for (int i = current; i >= last; --i) {
+                    multiplier.squareModulo(result);
+                }
+                multiplier.multiplyModulo(result, powers[windowValue >>> 1]);
+            }
+
+            current = last - 1;
         }
 
         copyBlockwise(result);
+
+        pool.close();
+    }
+
+    /**
+     * Chooses the width of sliding window for exponent of given length.
+     *
+     * Wider windows mean less multiplications while scanning the exponent but
+     * bigger table of precomputed powers.
+     *
+     * @param exponentBits Number of significant bits of the exponent.
+     * @return Window width in bits.
+     */
+    static int windowWidth(int exponentBits) {
+        if (exponentBits > 671) {
+            return 6;
+        } else if (exponentBits > 239) {
+            return 5;
+        } else if (exponentBits > 79) {
+            return 4;
+        } else if (exponentBits > 23) {
+            return 3;
+        }
+        return 1;
+    }
+
+    /**
+     * Calculates this^exponent * otherBase^otherExponent modulo given number.
+     *
+     * Both powers are calculated in a single pass over the exponent bits (so
+     * squarings are shared) with a joint table of products of powers of both
+     * bases. Signs of the numbers are ignored.
+     *
+     * @param exponent Exponent of this number.
+     * @param otherBase The other base.
+     * @param otherExponent Exponent of the other base.
+     * @param modulus Modulus.
+     */
+    public void multiPowerModulo(BigNum exponent, BigNum otherBase, BigNum otherExponent, final BigNum modulus) {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        BigNum factor = pool.get();
+        factor.initializeFromBigNum(this);
+        factor.modulo(modulus);
+
+        BigNum otherFactor = pool.get();
+        otherFactor.initializeFromBigNum(otherBase);
+        otherFactor.modulo(modulus);
+
+        jointPower(factor, exponent, otherFactor, otherExponent, BigNum.ONE, new ModularMultiplier() {
+
+            @Override
+            public void multiplyModulo(BigNum x, BigNum y) {
+                x.multiply(y);
+                x.modulo(modulus);
+            }
+
+            @Override
+            public void squareModulo(BigNum x) {
+                x.square();
+                x.modulo(modulus);
+            }
+        });
+
+        pool.close();
+    }
+
+    /**
+     * Calculates this^exponent * otherBase^otherExponent modulo the modulus of
+     * given Montgomery context.
+     *
+     * Intermediate values stay in limbs of the context for the whole
+     * exponentiation. Signs of the numbers are ignored.
+     *
+     * @param exponent Exponent of this number.
+     * @param otherBase The other base.
+     * @param otherExponent Exponent of the other base.
+     * @param context Montgomery context of the modulus.
+     */
+    public void multiPowerModulo(BigNum exponent, BigNum otherBase, BigNum otherExponent, MontgomeryContext context) {
+        context.multiPower(this, exponent, otherBase, otherExponent);
+    }
+
+    /**
+     * Calculates base^exponent * otherBase^otherExponent using fixed windows
+     * (Shamir's trick) and stores the result in this number.
+     *
+     * Products base^i * otherBase^j for all i, j less than 2^width are
+     * precomputed. Then both exponents are scanned simultaneously window by
+     * window, every window costs width squarings and one multiplication by
+     * the precomputed product indicated by the window of both exponents.
+     *
+     * @param base Reduced first base (it is not modified).
+     * @param exponent Exponent of the first base.
+     * @param otherBase Reduced second base (it is not modified).
+     * @param otherExponent Exponent of the second base.
+     * @param one Representation of 1 used by the multiplier.
+     * @param multiplier Modular multiplication used for all products.
+     */
+    private void jointPower(BigNum base, BigNum exponent, BigNum otherBase, BigNum otherExponent,
+            BigNum one, ModularMultiplier multiplier) {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        int exponentBits = Math.max(exponent.bitLength(), otherExponent.bitLength());
+        int width = jointWindowWidth(exponentBits);
+        int size = 1 << width;
+
+        // products[i * size + j] = base^i * otherBase^j
+        BigNum[] products = new BigNum[size * size];
+        for (int i = 0; i < size; ++i) {
+            for (int j = 0; j < size; ++j) {
+                BigNum product = pool.get();
+                if (j > 0) {
+                    product.initializeFromBigNum(products[i * size + j - 1]);
+                    multiplier.multiplyModulo(product, otherBase);
+                } else if (i > 0) {
+                    product.initializeFromBigNum(products[(i - 1) * size]);
+                    multiplier.multiplyModulo(product, base);
+                } else {
+                    product.initializeFromBigNum(one);
+                }
+                products[i * size + j] = product;
+            }
+        }
+
+        BigNum result = pool.get();
+        result.initializeFromBigNum(one);
+        // squaring 1 is pointless so we remember if anything was multiplied
+        boolean resultIsOne = true;
+
+        // windows are aligned to the least significant bit
+        int windows = (exponentBits + width - 1) / width;
+        for (int window = windows - 1; window >= 0; --window) {
+            int windowValue = 0;
+            int otherWindowValue = 0;
+            for (int i = width - 1; i >= 0; --i) {
+                // bits of the exponents are numbered from the least
+                // significant one
+                int bit = window * width + i;
+                windowValue <<= 1;
+                otherWindowValue <<= 1;
+                if (bit < BITS) {
+                    windowValue |= exponent.getBit(BITS - 1 - bit);
+                    otherWindowValue |= otherExponent.getBit(BITS - 1 - bit);
+                }
+            }
+
+            if (!resultIsOne) {
+                for (int i = 0; i < width; ++i) {
+                    multiplier.squareModulo(result);
+                }
+            }
+
+            if (windowValue != 0 || otherWindowValue != 0) {
+                multiplier.multiplyModulo(result, products[windowValue * size + otherWindowValue]);
+                resultIsOne = false;
+            }
+        }
+
+        copyBlockwise(result);
+
+        pool.close();
+    }
+
+    /**
+     * Chooses the width of joint window for exponents of given length.
+     *
+     * The joint table has 2^(2 * width) entries so the windows are narrower
+     * than in single exponentiation.
+     *
+     * @param exponentBits Number of significant bits of the longer exponent.
+     * @return Window width in bits.
+     */
+    static int jointWindowWidth(int exponentBits) {
+        if (exponentBits > 512) {
+            return 3;
+        } else if (exponentBits > 32) {
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * Divides this number modulo given modulus using Barrett reduction.
+     *
+     * This method considers only absolute values of the numbers (like modulo
+     * method). Numbers which have more than 2 * length blocks are reduced
+     * using ordinary division.
+     *
+     * @param modulus Modulus.
+     * @param mu Precomputed floor(2^(64 * length) / modulus).
+     * @param length Number of significant blocks of the modulus.
+     */
+    void barrettReduce(BigNum modulus, BigNum mu, int length) {
+        int myLength = BLOCKS - countLeadingEmptyBlocks();
+
+        if (myLength > 2 * length) {
+            modulo(modulus);
+            return;
+        }
+
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        if (absGreaterOrEqualTo(modulus)) {
+            // q1 = floor(this / b^(length - 1)) where b = 2^32
+            int q1Length = myLength - length + 1;
+            int muLength = BLOCKS - mu.countLeadingEmptyBlocks();
+
+            // q3 = floor(q1 * mu / b^(length + 1)) is an estimation of the
+            // quotient which is less than the real quotient by at most 2
+            BigNum q3 = pool.get();
+            q3.initializeFromBigNum(BigNum.ZERO);
+            int q3Length = Math.max(0, q1Length + muLength - length - 1);
+            multiplyColumns(number, BLOCKS - length, q1Length, mu.number, BLOCKS - 1, muLength,
+                    q3, length + 1, q1Length + muLength);
+
+            // r2 = q3 * modulus mod b^(length + 1)
+            BigNum r2 = pool.get();
+            r2.initializeFromBigNum(BigNum.ZERO);
+            multiplyColumns(q3.number, BLOCKS - 1, q3Length, modulus.number, BLOCKS - 1, length,
+                    r2, 0, length + 1);
+
+            // this = (this - r2) mod b^(length + 1)
+            // the real difference is non-negative and less than 3 * modulus
+            // so it fits into length + 1 blocks and the borrow from the most
+            // significant block can be dropped
+            long borrow = 0;
+            for (int i = BLOCKS - 1; i >= BLOCKS - length - 1; --i) {
+                long difference = number[i] - r2.number[i] - borrow;
+                borrow = difference >>> 63;
+                number[i] = extractLast32Bits(difference);
+            }
+            for (int i = firstSignificantBlock; i < BLOCKS - length - 1; ++i) {
+                number[i] = 0;
+            }
+            firstSignificantBlock = BLOCKS - length - 1;
+
+            // at most two subtractions are needed
+            while (absGreaterOrEqualTo(modulus)) {
+                absSubtract(modulus);
+            }
+        }
+
+        // if this number is negative we need to correct the remainder (zero
+        // needs only the sign to be fixed)
+        if (sign == -1 && bitLength() != 0) {
+            add(modulus);
+        }
+        sign = 1;
+
+        pool.close();
+    }
+
+    /**
+     * Marks all blocks of this temporary number as possibly significant and
+     * returns them to be used as a scratch array.
+     *
+     * @return Blocks of this number.
+     */
+    long[] scratchBlocks() {
+        firstSignificantBlock = 0;
+        return number;
+    }
+
+    /**
+     * Packs pairs of the least significant blocks into 64-bit limbs.
+     *
+     * @param limbs Array for the limbs (the least significant limb first).
+     * @param count Number of limbs to pack.
+     */
+    void packLimbs(long[] limbs, int count) {
+        for (int j = 0; j < count; ++j) {
+            limbs[j] = (number[BLOCKS - 2 - 2 * j] << 32) | number[BLOCKS - 1 - 2 * j];
+        }
+    }
+
+    /**
+     * Replaces the absolute value of this number with given 64-bit limbs and
+     * makes it positive.
+     *
+     * @param limbs Limbs (the least significant limb first).
+     * @param count Number of limbs.
+     */
+    void unpackLimbs(long[] limbs, int count) {
+        for (int i = firstSignificantBlock; i < BLOCKS - 2 * count; ++i) {
+            number[i] = 0;
+        }
+        for (int j = 0; j < count; ++j) {
+            number[BLOCKS - 1 - 2 * j] = limbs[j] & 0xFFFFFFFFL;
+            number[BLOCKS - 2 - 2 * j] = limbs[j] >>> 32;
+        }
+        firstSignificantBlock = BLOCKS - 2 * count;
+        sign = 1;
+    }
+
+    /**
+     * Copies the least significant blocks of this number into an array.
+     *
+     * @param blocks Array for the blocks (the least significant block first).
+     * @param count Number of blocks to copy.
+     */
+    void copyBlocks(long[] blocks, int count) {
+        for (int i = 0; i < count; ++i) {
+            blocks[i] = number[BLOCKS - 1 - i];
+        }
+    }
+
+    /**
+     * Compares two 64-bit numbers treated as unsigned.
+     *
+     * @param a First number.
+     * @param b Second number.
+     * @return True if and only if a is less than b.
+     */
+    private static boolean unsignedLess(long a, long b) {
+        return (a + Long.MIN_VALUE) < (b + Long.MIN_VALUE);
     }
 
     /**
@@ -483,12 +1626,13 @@ public class BigNum {
      * @param n Number of least significant blocks to fill with random bits.
      */
     public void randomize(int n) {
-        for (int i = 0; i < BLOCKS - n; ++i) {
+        for (int i = firstSignificantBlock; i < BLOCKS - n; ++i) {
             number[i] = 0;
         }
         for (int i = BLOCKS - n; i < BLOCKS; ++i) {
             number[i] = extractLast32Bits(generator.nextLong());
         }
+        firstSignificantBlock = BLOCKS - n;
     }
 
     /**
@@ -503,6 +1647,7 @@ public class BigNum {
 
         if (value == 1) {
             number[block] |= (1L << (BLOCK_SIZE - positionInBlock - 1));
+            firstSignificantBlock = Math.min(firstSignificantBlock, block);
         } else if (value == 0) {
             number[block] &= ~(1L << (BLOCK_SIZE - positionInBlock - 1));
         }
@@ -525,51 +1670,6 @@ public class BigNum {
         }
     }
 
-    /**
-     * Finds maximum left shift of x so that it does not exceed this number.
-     *
-     * This method is equivalent to finding maximum k so that x * 2^k does not
-     * exceed this number.
-     *
-     * @param x The number to be shifted.
-     * @return Maximum shift (or -1 if x is greater than this number).
-     */
-    private int findMaximumLeftShift(BigNum x) {
-
-        // if x is already greater than this number return -1
-        if (!absGreaterOrEqualTo(x)) {
-            return -1;
-        }
-
-        // count leading zeros to determine where we should start testing bits
-        int myLeadingZeros = countLeadingZeros();
-        int xLeadingZeros = x.countLeadingZeros();
-
-        // difference in leading zeros, for sure non negative because this >= x
-        int diff = xLeadingZeros - myLeadingZeros;
-
-        // the first bit to be checked in this number
-        int current = myLeadingZeros;
-
-        // test consecutive bits until we find the difference
-        while (current < BigNum.BITS - diff) {
-            byte thisBit = getBit(current);
-            byte xBit = x.getBit(current + diff);
-
-            if (thisBit > xBit) {
-                return diff;
-            } else if (thisBit < xBit) {
-                return diff - 1;
-            }
-
-            ++current;
-        }
-
-        // if all bits are the same we still satisfy 'is greater or equal'
-        // condition
-        return diff;
-    }
-
     /**
      * Shifts this number left by given number of bits.
      *
@@ -588,7 +1688,9 @@ public class BigNum {
         // zeros
         // that is why we took such boundaries for the loop below
         // every other block can be really an effect of the shift
-        for (int i = 0; i < BLOCKS - shiftBlocks - 1; ++i) {
+        // (blocks taken only from empty blocks stay empty)
+        int first = Math.max(0, firstSignificantBlock - shiftBlocks - 1);
+        for (int i = first; i < BLOCKS - shiftBlocks - 1; ++i) {
             number[i] = ((number[i + shiftBlocks] & endMask[BLOCK_SIZE - innerShift]) << innerShift)
                     | ((number[i + shiftBlocks + 1] & beginMask[innerShift]) >>> (BLOCK_SIZE - innerShift));
         }
@@ -600,6 +1702,8 @@ public class BigNum {
         for (int i = BLOCKS - shiftBlocks; i < BLOCKS; ++i) {
             number[i] = 0;
         }
+
+        firstSignificantBlock = Math.min(first, BLOCKS - shiftBlocks - 1);
     }
 
     /**
@@ -610,32 +1714,49 @@ public class BigNum {
      * @param bias Number of bits by which this number should be shifted.
      */
     public void shiftRight(int bias) {
-        byte[] binaryRepresentation = binaryRepresentation();
+        // how many whole blocks we shift
+        int shiftBlocks = bias / BLOCK_SIZE;
+        // how many bits remains to shift
+        int innerShift = bias % BLOCK_SIZE;
 
-        for (int i = binaryRepresentation.length - 1; i >= bias; --i) {
-            binaryRepresentation[i] = binaryRepresentation[i - bias];
+        int first = firstSignificantBlock;
+        int newFirst = (int) Math.min((long) first + shiftBlocks, BLOCKS);
+
+        // block i is made of the least significant bits of block
+        // (i - shiftBlocks) and the most significant bits of the block before
+        // it, blocks are processed from the least significant one so every
+        // block is read before it is overwritten
+        for (int i = BLOCKS - 1; i >= newFirst; --i) {
+            int source = i - shiftBlocks;
+            long block = number[source] >>> innerShift;
+            if (innerShift != 0 && source > first) {
+                block |= (number[source - 1] << (BLOCK_SIZE - innerShift)) & 0xFFFFFFFFL;
+            }
+            number[i] = block;
         }
 
         // when we perform unsigned right shift zeros appear on the left
-        for (int i = 0; i < bias; ++i) {
-            binaryRepresentation[i] = 0;
+        for (int i = first; i < newFirst; ++i) {
+            number[i] = 0;
         }
 
-        fillFromBinaryRepresentation(binaryRepresentation);
+        firstSignificantBlock = newFirst;
     }
 
     /**
-     * Fills this number content with given binary representation.
+     * Returns the number of trailing zero bits of this number.
      *
-     * This method can be used as a clone not changing the original number's
-     * sign.
-     *
-     * @param binaryRepresentation Binary representation of the BigNum.
+     * @return Number of least significant zero bits (BITS if the number is
+     * equal to 0).
      */
-    private void fillFromBinaryRepresentation(byte[] binaryRepresentation) {
-        for (int i = 0; i < binaryRepresentation.length; ++i) {
-            setBit(i, binaryRepresentation[i]);
+    public int numberOfTrailingZeros() {
+        for (int i = BLOCKS - 1; i >= firstSignificantBlock; --i) {
+            if (number[i] != 0) {
+                return (BLOCKS - 1 - i) * BLOCK_SIZE + Long.numberOfTrailingZeros(number[i]);
+            }
         }
+
+        return BITS;
     }
 
     /**
@@ -647,9 +1768,12 @@ public class BigNum {
      * @param pattern Number to copy.
      */
     private void copyBlockwise(BigNum pattern) {
-        for (int i = 0; i < BLOCKS; ++i) {
+        // blocks before both first significant blocks are empty in both
+        // numbers
+        for (int i = Math.min(firstSignificantBlock, pattern.firstSignificantBlock); i < BLOCKS; ++i) {
             number[i] = pattern.number[i];
         }
+        firstSignificantBlock = pattern.firstSignificantBlock;
     }
 
     /**
@@ -663,6 +1787,7 @@ public class BigNum {
         copyBlockwise(BigNum.ZERO);
         number[firstBlock + 1] = extractLast32Bits(initialValue);
         number[firstBlock] = (initialValue >>> 32);
+        firstSignificantBlock = firstBlock;
     }
 
     /**
@@ -692,6 +1817,7 @@ public class BigNum {
     public void initializeFromInt(int initialValue) {
         copyBlockwise(BigNum.ZERO);
         number[BLOCKS - 1] = initialValue;
+        firstSignificantBlock = BLOCKS - 1;
     }
 
     /**
@@ -699,7 +1825,7 @@ public class BigNum {
      *
      * @param pattern Big integer to copy.
      */
-    private void initializeFromBigNum(BigNum pattern) {
+    public void initializeFromBigNum(BigNum pattern) {
         sign = pattern.sign;
         copyBlockwise(pattern);
     }
@@ -774,16 +1900,37 @@ public class BigNum {
      * (only absolute values are concerned).
      */
     private boolean absGreaterParametrized(BigNum x, boolean strict) {
+        int comparison = compareAbs(x);
+        return comparison > 0 || (!strict && comparison == 0);
+    }
 
-        for (int i = 0; i < BLOCKS; ++i) {
+    /**
+     * Compares absolute values of this number and given number.
+     *
+     * Numbers of different bit length are told apart without looking at the
+     * remaining blocks.
+     *
+     * @param x Number to compare with.
+     * @return Negative number, zero or positive number if this number is less
+     * than, equal to or greater than x (only absolute values are concerned).
+     */
+    public int compareAbs(BigNum x) {
+        int myLength = bitLength();
+        int xLength = x.bitLength();
+        if (myLength != xLength) {
+            return myLength < xLength ? -1 : 1;
+        }
+
+        // both numbers have the same first significant block now
+        for (int i = firstSignificantBlock; i < BLOCKS; ++i) {
             if (number[i] < x.number[i]) {
-                return false;
+                return -1;
             } else if (number[i] > x.number[i]) {
-                return true;
+                return 1;
             }
         }
 
-        return !strict;
+        return 0;
     }
 
     /**
@@ -792,35 +1939,33 @@ public class BigNum {
      * @return Number of leading empty blocks in this big integer.
      */
     private int countLeadingEmptyBlocks() {
-        int emptyBlocks = 0;
+        int emptyBlocks = firstSignificantBlock;
 
         while (emptyBlocks < BLOCKS && number[emptyBlocks] == 0) {
             ++emptyBlocks;
         }
 
+        // the exact index is remembered for subsequent operations
+        firstSignificantBlock = emptyBlocks;
+
         return emptyBlocks;
     }
 
     /**
-     * Returns the number of leading zeros in this big integer.
+     * Returns the number of significant bits of this number's absolute value.
      *
-     * @return Number of leading zeros in this big integer.
+     * @return Position of the most significant one bit plus one (0 if the
+     * number is equal to 0).
      */
-    private int countLeadingZeros() {
-        // count empty leading blocks
+    public int bitLength() {
         int emptyBlocks = countLeadingEmptyBlocks();
-        int counter = BLOCK_SIZE * emptyBlocks;
-
-        // count leading zeros in the first non-empty block if it exists
-        if (emptyBlocks < BLOCKS) {
-            long mask = (1L << 31);
-            while ((number[emptyBlocks] & mask) == 0) {
-                mask >>>= 1;
-                ++counter;
-            }
+        if (emptyBlocks == BLOCKS) {
+            return 0;
         }
 
-        return counter;
+        // blocks hold 32 bits in 64-bit longs
+        int blockLength = Long.SIZE - Long.numberOfLeadingZeros(number[emptyBlocks]);
+        return (BLOCKS - 1 - emptyBlocks) * BLOCK_SIZE + blockLength;
     }
 
     @Override
@@ -914,6 +2059,9 @@ public class BigNum {
      */
     public void replaceBlock(int blockNumber, long value) {
         number[blockNumber] = value;
+        if (value != 0) {
+            firstSignificantBlock = Math.min(firstSignificantBlock, blockNumber);
+        }
     }
 
     public int getSign() {
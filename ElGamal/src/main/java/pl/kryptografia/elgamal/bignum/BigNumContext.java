@@ -0,0 +1,103 @@
+package pl.kryptografia.elgamal.bignum;
+
+/**
+ * Working width of big numbers used by one configuration of an algorithm
+ * (e.g. the size of a modulus).
+ *
+ * All BigNums have the same storage but arithmetic touches only their
+ * significant blocks, so numbers of a narrow context are proportionally
+ * cheaper. Contexts of different widths can be used side by side. Products of
+ * two numbers have to fit into a BigNum so the width cannot exceed half of
+ * its bits (2048 bits; wider contexts, e.g. for 4096-bit keys, are not
+ * supported).
+ */
+public final class BigNumContext {
+
+    /**
+     * Maximum width in bits.
+     */
+    public final static int MAX_BITS = BigNum.BITS / 2;
+
+    /**
+     * Default width (half of the bits of BigNum).
+     */
+    public final static BigNumContext DEFAULT = new BigNumContext(MAX_BITS);
+
+    /**
+     * Width in 32-bit blocks.
+     */
+    private final int blocks;
+
+    /**
+     * Creates a context of given width.
+     *
+     * @param bits Width in bits (a positive multiple of 64 not greater than
+     * MAX_BITS).
+     */
+    public BigNumContext(int bits) {
+        if (bits <= 0 || bits > MAX_BITS || bits % (2 * BigNum.BLOCK_SIZE) != 0) {
+            throw new IllegalArgumentException("Width has to be a positive multiple of 64 not greater than "
+                    + MAX_BITS + " bits");
+        }
+
+        blocks = bits / BigNum.BLOCK_SIZE;
+    }
+
+    /**
+     * Creates a random number which fills the whole width.
+     *
+     * @return Random number with at most getBits() bits.
+     */
+    public BigNum randomNumber() {
+        BigNum result = new BigNum();
+        result.randomize(blocks);
+        return result;
+    }
+
+    /**
+     * Returns the width in bits.
+     *
+     * @return Number of bits.
+     */
+    public int getBits() {
+        return blocks * BigNum.BLOCK_SIZE;
+    }
+
+    /**
+     * Returns the width in blocks.
+     *
+     * @return Number of 32-bit blocks.
+     */
+    public int getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Returns the width in bytes.
+     *
+     * @return Number of bytes needed to store a number of this width.
+     */
+    public int getBytes() {
+        return blocks * BigNum.BLOCK_SIZE / 8;
+    }
+
+    /**
+     * Returns the index of the most significant block of numbers of this
+     * width.
+     *
+     * @return Index of the first block which may be non-zero.
+     */
+    public int getFirstBlock() {
+        return BigNum.BLOCKS - blocks;
+    }
+
+    /**
+     * Returns the position of the most significant bit of numbers of this
+     * width (as used by BigNum.setBit).
+     *
+     * @return Position of the first bit which may be non-zero.
+     */
+    public int getFirstBit() {
+        return BigNum.BITS - getBits();
+    }
+}
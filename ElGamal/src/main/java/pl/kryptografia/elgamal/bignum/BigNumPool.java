@@ -6,31 +6,118 @@ import java.util.List;
 /**
  * Pool of BigNums used to limit creation of new objects and allocating memory
  * for them multiple times.
+ *
+ * Every thread has its own pool so temporary numbers are never shared between
+ * threads and no synchronization is needed. Numbers taken from the pool must
+ * not be passed to other threads.
+ *
+ * The pool grows lazily up to a maximum size, numbers requested beyond it are
+ * allocated without pooling. Idle capacity is released automatically: every
+ * TRIM_INTERVAL releases of the outermost scope the pool is trimmed to the
+ * peak depth since the last check if it is more than twice as large (so a
+ * burst of deep computations does not keep its numbers forever while a steady
+ * load does not reallocate them). Both sizes can be configured with system
+ * properties (e.g. -Dpl.kryptografia.elgamal.bignum.BigNumPool.initialSize=1000):
+ * <ul>
+ * <li>initialSize - number of BigNums allocated when the pool is created (the
+ * pool is never trimmed below it),</li>
+ * <li>maximumSize - maximum number of pooled BigNums.</li>
+ * </ul>
  */
 public class BigNumPool {
 
-    private final static int INITIAL_POOL_SIZE = 50000;
+    private final static int INITIAL_POOL_SIZE = Integer.getInteger(BigNumPool.class.getName() + ".initialSize", 16);
+
+    private final static int MAXIMUM_POOL_SIZE = Integer.getInteger(BigNumPool.class.getName() + ".maximumSize", 50000);
+
+    /**
+     * Number of releases of the outermost scope between checks whether the
+     * pool should be trimmed.
+     */
+    private final static int TRIM_INTERVAL = 1024;
 
     private final List<Integer> spacePointers = new ArrayList<>();
 
-    private final List<BigNum> pool = new ArrayList<>(INITIAL_POOL_SIZE);
+    private final ArrayList<BigNum> pool = new ArrayList<>(INITIAL_POOL_SIZE);
 
     private int next = 0;
 
+    /**
+     * Maximum number of BigNums taken from the pool at the same time.
+     */
+    private int peakDepth = 0;
+
+    /**
+     * Maximum number of BigNums taken from the pool at the same time since the
+     * last trimming check.
+     */
+    private int recentPeakDepth = 0;
+
+    /**
+     * Releases of the outermost scope since the last trimming check.
+     */
+    private int releases = 0;
+
+    /**
+     * Number of BigNums created by the pool (including unpooled ones).
+     */
+    private long allocationCount = 0;
+
+    /**
+     * Number of BigNums created because the pool reached its maximum size.
+     */
+    private long unpooledAllocationCount = 0;
+
+    /**
+     * Scratch array of the thread (see getScratch).
+     */
+    private long[] scratch = new long[0];
+
     private BigNumPool() {
         for (int i = 0; i < INITIAL_POOL_SIZE; ++i) {
             pool.add(new BigNum());
         }
+        allocationCount = INITIAL_POOL_SIZE;
     }
 
     public BigNum get() {
-        if (next == pool.size()) {
-            for (int i = 0; i < next; ++i) {
-                pool.add(new BigNum());
-            }
+        if (next < pool.size()) {
+            BigNum x = pool.get(next++);
+            recentPeakDepth = Math.max(recentPeakDepth, next);
+            return x;
         }
 
-        return pool.get(next++);
+        // the pool is exhausted so it either grows or the number is not pooled
+        BigNum x = new BigNum();
+        ++allocationCount;
+        ++next;
+        recentPeakDepth = Math.max(recentPeakDepth, next);
+
+        if (pool.size() < MAXIMUM_POOL_SIZE) {
+            pool.add(x);
+        } else {
+            ++unpooledAllocationCount;
+        }
+
+        return x;
+    }
+
+    /**
+     * Returns the scratch array of the calling thread.
+     *
+     * The array grows when a longer one is requested and its content is
+     * arbitrary. There is only one array per thread, so it may be used only by
+     * code which does not call anything else using it (the recursion of
+     * Karatsuba's algorithm and the long division).
+     *
+     * @param length Minimum length of the array.
+     * @return Scratch array of at least given length.
+     */
+    long[] getScratch(int length) {
+        if (scratch.length < length) {
+            scratch = new long[length];
+        }
+        return scratch;
     }
 
     public void open() {
@@ -40,14 +127,95 @@ public class BigNumPool {
     public void close() {
         next = spacePointers.get(spacePointers.size() - 1);
         spacePointers.remove(spacePointers.size() - 1);
+
+        if (spacePointers.isEmpty() && ++releases == TRIM_INTERVAL) {
+            peakDepth = Math.max(peakDepth, recentPeakDepth);
+            if (pool.size() > 2 * Math.max(recentPeakDepth, INITIAL_POOL_SIZE)) {
+                trim(recentPeakDepth);
+            }
+            recentPeakDepth = next;
+            releases = 0;
+        }
+    }
+
+    /**
+     * Releases pooled BigNums which are not used at the moment.
+     *
+     * The pool keeps at least its initial number of BigNums.
+     */
+    public void trim() {
+        trim(next);
+    }
+
+    /**
+     * Releases pooled BigNums beyond given number (but not below the initial
+     * size of the pool).
+     *
+     * @param used Number of BigNums which may still be in use (at least next).
+     */
+    private void trim(int used) {
+        int retained = Math.max(used, INITIAL_POOL_SIZE);
+        if (retained < pool.size()) {
+            pool.subList(retained, pool.size()).clear();
+            pool.trimToSize();
+        }
+    }
+
+    /**
+     * Returns the number of pooled BigNums.
+     *
+     * @return Current size of the pool.
+     */
+    public int size() {
+        return pool.size();
     }
 
+    /**
+     * Returns the maximum number of BigNums taken from the pool at the same
+     * time.
+     *
+     * @return Peak depth of the pool.
+     */
+    public int getPeakDepth() {
+        return Math.max(peakDepth, recentPeakDepth);
+    }
+
+    /**
+     * Returns the number of BigNums created by the pool.
+     *
+     * @return Total number of allocations (including unpooled ones).
+     */
+    public long getAllocationCount() {
+        return allocationCount;
+    }
+
+    /**
+     * Returns the number of BigNums which were created because the pool
+     * reached its maximum size.
+     *
+     * @return Number of unpooled allocations.
+     */
+    public long getUnpooledAllocationCount() {
+        return unpooledAllocationCount;
+    }
+
+    /**
+     * Returns the pool of the current thread.
+     *
+     * @return Pool which can be used only by the calling thread.
+     */
     public static BigNumPool getInstance() {
-        return BigNumPoolHolder.INSTANCE;
+        return BigNumPoolHolder.INSTANCES.get();
     }
 
     private static class BigNumPoolHolder {
 
-        private static final BigNumPool INSTANCE = new BigNumPool();
+        private static final ThreadLocal<BigNumPool> INSTANCES = new ThreadLocal<BigNumPool>() {
+
+            @Override
+            protected BigNumPool initialValue() {
+                return new BigNumPool();
+            }
+        };
     }
 }
@@ -0,0 +1,168 @@
+package pl.kryptografia.elgamal.bignum;
+
+/**
+ * Precomputed powers of a fixed base used to speed up exponentiation modulo a
+ * fixed odd modulus (fixed-base comb method).
+ *
+ * The exponent bits are arranged in a table of h rows and a columns (bit j + i *
+ * a goes into row i and column j). For every subset u of rows the table holds
+ * base^(sum of 2^(i * a) for i in u) so one column of the exponent can be
+ * handled by a single multiplication. Exponentiation costs at most a squarings
+ * and a multiplications instead of one squaring per exponent bit.
+ *
+ * The powers are stored in Montgomery form in limbs of the context, so the
+ * exponentiation does not convert any of them.
+ */
+public class FixedBaseTable {
+
+    /**
+     * Maximum number of rows (the table has 2^rows entries).
+     */
+    private final static int MAX_ROWS = 16;
+
+    /**
+     * Context of the modulus, all powers are stored in Montgomery form.
+     */
+    private final MontgomeryContext context;
+
+    /**
+     * Base which is raised to the powers (in standard form).
+     */
+    private final BigNum base;
+
+    /**
+     * Number of rows of the comb (h).
+     */
+    private final int rows;
+
+    /**
+     * Number of columns of the comb (a).
+     */
+    private final int columns;
+
+    /**
+     * Precomputed powers of the base indexed by subsets of rows (in limbs).
+     */
+    private final long[][] powers;
+
+    /**
+     * Creates a table of precomputed powers of given base.
+     *
+     * @param base Fixed base.
+     * @param exponentBits Maximum number of bits of exponents (longer exponents
+     * are handled without the table).
+     * @param context Montgomery context of the modulus.
+     * @param memoryBudget Maximum size of the table in bytes (at least one row
+     * is always used).
+     */
+    public FixedBaseTable(BigNum base, int exponentBits, MontgomeryContext context, long memoryBudget) {
+        this.context = context;
+        this.base = new BigNum(base);
+
+        int length = context.getLength();
+
+        // the widest comb which fits into the budget (an entry is an array of
+        // 64-bit longs)
+        long entrySize = 8L * length;
+        int h = 1;
+        while (h < MAX_ROWS && h < exponentBits && (entrySize << (h + 1)) <= memoryBudget) {
+            ++h;
+        }
+        rows = h;
+        columns = (exponentBits + rows - 1) / rows;
+
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+        long[] t = MontgomeryContext.scratch(pool);
+
+        // rowBases[i] = base^(2^(i * columns))
+        long[][] rowBases = new long[rows][length];
+        context.toMontgomery(base, rowBases[0]);
+        for (int i = 1; i < rows; ++i) {
+            System.arraycopy(rowBases[i - 1], 0, rowBases[i], 0, length);
+            for (int j = 0; j < columns; ++j) {
+                context.square(rowBases[i], t);
+            }
+        }
+
+        // every entry is a product of a smaller entry and one of the row bases
+        powers = new long[1 << rows][length];
+        context.setMontgomeryOne(powers[0]);
+        for (int u = 1; u < powers.length; ++u) {
+            int highestRow = 31 - Integer.numberOfLeadingZeros(u);
+            int rest = u & ~(1 << highestRow);
+
+            System.arraycopy(rowBases[highestRow], 0, powers[u], 0, length);
+            if (rest != 0) {
+                context.multiply(powers[u], powers[rest], t);
+            }
+        }
+
+        pool.close();
+    }
+
+    /**
+     * Raises the base to given power modulo the modulus of the context.
+     *
+     * @param exponent Non-negative exponent.
+     * @return base^exponent mod modulus.
+     */
+    public BigNum power(BigNum exponent) {
+        int exponentBits = exponent.bitLength();
+
+        // the comb always costs about 2 * columns multiplications so for short
+        // exponents (like hashes) and exponents which do not fit into the comb
+        // the ordinary exponentiation is faster
+        if (exponentBits > rows * columns || 3 * exponentBits < 4 * columns) {
+            BigNum result = new BigNum(base);
+            result.powerModulo(exponent, context);
+            return result;
+        }
+
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        long[] t = MontgomeryContext.scratch(pool);
+        long[] limbs = MontgomeryContext.scratch(pool);
+        context.setMontgomeryOne(limbs);
+
+        // squaring 1 is pointless so we remember if anything was multiplied
+        boolean resultIsOne = true;
+
+        for (int column = columns - 1; column >= 0; --column) {
+            if (!resultIsOne) {
+                context.square(limbs, t);
+            }
+
+            // collect bits of the current column from all rows
+            int index = 0;
+            for (int row = rows - 1; row >= 0; --row) {
+                int position = row * columns + column;
+                index <<= 1;
+                if (position < BigNum.BITS) {
+                    index |= exponent.getBit(BigNum.BITS - 1 - position);
+                }
+            }
+
+            if (index != 0) {
+                context.multiply(limbs, powers[index], t);
+                resultIsOne = false;
+            }
+        }
+
+        BigNum result = new BigNum();
+        context.fromMontgomery(limbs, result);
+
+        pool.close();
+        return result;
+    }
+
+    /**
+     * Returns the number of precomputed powers.
+     *
+     * @return Number of entries of the table.
+     */
+    public int size() {
+        return powers.length;
+    }
+}
@@ -0,0 +1,25 @@
+package pl.kryptografia.elgamal.bignum;
+
+/**
+ * Multiplication modulo a fixed modulus used by modular exponentiation.
+ *
+ * Implementations may keep numbers in their own representation (e.g.
+ * Montgomery form) as long as both factors use the same one.
+ */
+interface ModularMultiplier {
+
+    /**
+     * Multiplies x by y modulo the modulus and stores the result in x.
+     *
+     * @param x Multiplicand (replaced with the product).
+     * @param y Multiplier.
+     */
+    void multiplyModulo(BigNum x, BigNum y);
+
+    /**
+     * Squares x modulo the modulus and stores the result in x.
+     *
+     * @param x Number to square (replaced with the square).
+     */
+    void squareModulo(BigNum x);
+}
@@ -14,11 +14,6 @@ public class PrimeGenerator {
      */
     private final static PrimeTester primeTester = PrimeTester.getInstance();
 
-    /**
-     * Pool used for creating temporary big integers.
-     */
-    private final static BigNumPool pool = BigNumPool.getInstance();
-
     private final static Random randomGenerator = new Random();
 
     /**
@@ -83,6 +78,7 @@ public class PrimeGenerator {
      * @return Pair (p, q) as described above.
      */
     private Pair generateSafePrime(BigNum maximum) {
+        BigNumPool pool = BigNumPool.getInstance();
         pool.open();
 
         // small primes used to sieve out candidates which are not prime
@@ -2,8 +2,6 @@ package pl.kryptografia.elgamal.gui;
 
 import java.awt.Cursor;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -34,32 +32,17 @@ public class MainFrame extends javax.swing.JFrame {
     }
 
     /**
-     * Pozwól użytkownikowi wybrać plik i zwróć informacje o tym pliku.
+     * Pozwól użytkownikowi wybrać plik.
      *
-     * @return Informacje o pełnej nazwie pliku oraz jego zawartości.
-     * @throws FileNotFoundException
-     * @throws IOException
+     * @param fileChooserTitle Tytuł okna wyboru pliku.
+     * @return Wybrany plik lub null, jeśli użytkownik nie wybrał pliku.
      */
-    private FileContent retrieveFileContent(String fileChooserTitle) throws FileNotFoundException, IOException {
-        FileContent result = new FileContent();
-
+    private File chooseFile(String fileChooserTitle) {
         JFileChooser chooser = new JFileChooser();
         chooser.setDialogTitle(fileChooserTitle);
         int returnVal = chooser.showOpenDialog(this);
         if (returnVal == JFileChooser.APPROVE_OPTION) {
-            File file = chooser.getSelectedFile();
-            result.setFilePath(file.getParent());
-            result.setFileName(FilenameUtils.getBaseName(file.getAbsolutePath()));
-            result.setFileExtension(FilenameUtils.getExtension(file.getAbsolutePath()));
-
-            byte[] binaryContent;
-            try (FileInputStream fis = new FileInputStream(file)) {
-                binaryContent = new byte[(int) file.length()];
-                fis.read(binaryContent);
-            }
-
-            result.setBinaryConent(binaryContent);
-            return result;
+            return chooser.getSelectedFile();
         }
 
         return null;
@@ -120,24 +103,20 @@ public class MainFrame extends javax.swing.JFrame {
     private void jButtonVerifyFileActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButtonVerifyFileActionPerformed
         setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
         
-        FileContent inputFileContent;
-        FileContent signatureFileContent;
-
         try {
-            inputFileContent = retrieveFileContent("Wybierz plik do sprawdzenia");
-            if (inputFileContent == null) {
+            File inputFile = chooseFile("Wybierz plik do sprawdzenia");
+            if (inputFile == null) {
                 return;
             }
 
-            signatureFileContent = retrieveFileContent("Wybierz plik z podpisem");
-            if (signatureFileContent == null) {
+            File signatureFile = chooseFile("Wybierz plik z podpisem");
+            if (signatureFile == null) {
                 return;
             }
 
-            byte[] originalMessage = inputFileContent.getBinaryConent();
-            byte[] signature = signatureFileContent.getBinaryConent();
+            byte[] signature = FileUtils.readFileToByteArray(signatureFile);
 
-            boolean verificationStatus = signatureScheme.verify(originalMessage, signature);
+            boolean verificationStatus = signatureScheme.verify(inputFile.toPath(), signature);
             if (verificationStatus) {
                 JOptionPane.showMessageDialog(this, "Weryfikacja zakończyła się powodzeniem.", "Sukces", JOptionPane.INFORMATION_MESSAGE);
             } else {
@@ -155,17 +134,18 @@ public class MainFrame extends javax.swing.JFrame {
     private void jButtonSignFileActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButtonSignFileActionPerformed
         setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
         
-        FileContent fileContent;
         try {
-            fileContent = retrieveFileContent("Wybierz plik do podpisania");
-            if (fileContent == null) {
+            File inputFile = chooseFile("Wybierz plik do podpisania");
+            if (inputFile == null) {
                 return;
             }
 
-            File outputFile = new File(fileContent.getFilePath() + "/"
-                    + fileContent.getFileName() + "." + fileContent.getFileExtension() + ".signature");
+            File outputFile = new File(inputFile.getParent() + "/"
+                    + FilenameUtils.getBaseName(inputFile.getAbsolutePath()) + "."
+                    + FilenameUtils.getExtension(inputFile.getAbsolutePath()) + ".signature");
 
-            FileUtils.writeByteArrayToFile(outputFile, signatureScheme.sign(fileContent.getBinaryConent()));
+            // the file is hashed without loading it into memory
+            FileUtils.writeByteArrayToFile(outputFile, signatureScheme.sign(inputFile.toPath()));
 
             JOptionPane.showMessageDialog(this, "Plik został pomyślnie podpisany.", "Sukces", JOptionPane.INFORMATION_MESSAGE);
         } catch (IOException ex) {
@@ -3,16 +3,39 @@ package pl.kryptografia.elgamal.io;
 import java.util.ArrayList;
 import java.util.List;
 import pl.kryptografia.elgamal.bignum.BigNum;
+import pl.kryptografia.elgamal.bignum.BigNumContext;
 
 /**
  *
  */
 public class BigNumsToBytesConverter {
 
+    /**
+     * Width of the numbers.
+     */
+    private final BigNumContext context;
+
+    /**
+     * Creates a converter for numbers of the default width.
+     */
+    public BigNumsToBytesConverter() {
+        this(BigNumContext.DEFAULT);
+    }
+
+    /**
+     * Creates a converter for numbers of given width.
+     *
+     * @param context Width of the numbers.
+     */
+    public BigNumsToBytesConverter(BigNumContext context) {
+        this.context = context;
+    }
+
     /**
      * Converts an array of big integers to an array of bytes.
      * 
-     * Only the least significant half of the blocks is used in each BigNum.
+     * Only the least significant blocks which fit into the width are used in
+     * each BigNum.
      * 
      * @param numbers An array of BigNums.
      * @return Corresponding array of bytes.
@@ -21,7 +44,7 @@ public class BigNumsToBytesConverter {
         List<byte[]> fragments = new ArrayList<>(numbers.length);
         
         for (int i = 0; i < numbers.length; ++i) {
-            for (int j = BigNum.BLOCKS / 2; j < BigNum.BLOCKS; ++j) {
+            for (int j = context.getFirstBlock(); j < BigNum.BLOCKS; ++j) {
                 fragments.add(longToBytes(numbers[i].getBlock(j)));
             }
         }
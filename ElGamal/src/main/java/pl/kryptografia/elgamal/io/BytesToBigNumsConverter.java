@@ -1,17 +1,49 @@
 package pl.kryptografia.elgamal.io;
 
 import pl.kryptografia.elgamal.bignum.BigNum;
+import pl.kryptografia.elgamal.bignum.BigNumContext;
 
 /**
  *
  */
 public class BytesToBigNumsConverter {
 
-    private final static int BLOCKS_PER_BIGNUM = BigNum.BLOCKS / 2;
-    
     private final static int BYTES_PER_BLOCK = 4;
     
-    public final static int BYTES_PER_BIGNUM = BLOCKS_PER_BIGNUM * BYTES_PER_BLOCK;
+    /**
+     * Bytes per one BigNum of the default width.
+     */
+    public final static int BYTES_PER_BIGNUM = BigNumContext.DEFAULT.getBytes();
+
+    /**
+     * Width of the numbers.
+     */
+    private final BigNumContext context;
+
+    /**
+     * Creates a converter for numbers of the default width.
+     */
+    public BytesToBigNumsConverter() {
+        this(BigNumContext.DEFAULT);
+    }
+
+    /**
+     * Creates a converter for numbers of given width.
+     *
+     * @param context Width of the numbers.
+     */
+    public BytesToBigNumsConverter(BigNumContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Returns the number of bytes converted into one BigNum.
+     *
+     * @return Bytes per one BigNum.
+     */
+    public int getBytesPerBigNum() {
+        return context.getBytes();
+    }
     
     /**
      * Converts input bytes to an array of big integers.
@@ -22,8 +54,10 @@ public class BytesToBigNumsConverter {
     public BigNum[] convert(byte[] bytes) {
         int k = bytes.length;
 
-        BigNum[] result = new BigNum[k / BYTES_PER_BIGNUM];
-        for (int i = 0; i < k / BYTES_PER_BIGNUM; ++i) {
+        int bytesPerBigNum = getBytesPerBigNum();
+
+        BigNum[] result = new BigNum[k / bytesPerBigNum];
+        for (int i = 0; i < k / bytesPerBigNum; ++i) {
             result[i] = convertToSingleBigNum(i, bytes);
         }
 
@@ -40,9 +74,9 @@ public class BytesToBigNumsConverter {
     private BigNum convertToSingleBigNum(int index, byte[] bytes) {
         BigNum result = new BigNum();
 
-        int currentByte = index * BYTES_PER_BIGNUM;
+        int currentByte = index * getBytesPerBigNum();
 
-        for (int i = BigNum.BLOCKS - (BLOCKS_PER_BIGNUM); i < BigNum.BLOCKS; ++i) {
+        for (int i = context.getFirstBlock(); i < BigNum.BLOCKS; ++i) {
             long block = 0;
             for (int j = 0; j < BYTES_PER_BLOCK; ++j) {
                 // 0xFF sorcery lets us treat this byte as really unsigned
@@ -1,12 +1,30 @@
 package pl.kryptografia.elgamal.signature;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import pl.kryptografia.elgamal.bignum.BarrettReducer;
 import pl.kryptografia.elgamal.bignum.BigNum;
+import pl.kryptografia.elgamal.bignum.BigNumContext;
 import pl.kryptografia.elgamal.calculation.EuclideanSolver;
+import pl.kryptografia.elgamal.calculation.Pair;
+import pl.kryptografia.elgamal.calculation.PrimeGenerator;
 import pl.kryptografia.elgamal.io.BigNumsToBytesConverter;
 import pl.kryptografia.elgamal.io.BytesToBigNumsConverter;
 
@@ -15,16 +33,57 @@ import pl.kryptografia.elgamal.io.BytesToBigNumsConverter;
  */
 public class ElGamalSignatureScheme implements SignatureScheme {
 
+    /**
+     * Number of 32-bit blocks of random multipliers used in batch verification.
+     */
+    private final static int BATCH_MULTIPLIER_BLOCKS = 2;
+
+    /**
+     * Batches of at most this size are verified signature by signature.
+     */
+    private final static int INDIVIDUAL_VERIFICATION_THRESHOLD = 2;
+
+    /**
+     * Minimum width of the prime (the digest has to be less than the prime).
+     */
+    private final static int MIN_BITS = 512;
+
+    /**
+     * Size of the buffer into which files are read while they are hashed.
+     */
+    private final static int READ_BUFFER_BYTES = 64 * 1024;
+
+    /**
+     * Direct read buffer of every thread hashing files (reused, so hashing
+     * neither allocates nor keeps memory mappings alive until collected).
+     */
+    private final static ThreadLocal<ByteBuffer> READ_BUFFERS = new ThreadLocal<ByteBuffer>() {
+
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+        }
+    };
+
     private final static EuclideanSolver euclideanSolver = EuclideanSolver.getInstance();
 
-    private final static BigNumsToBytesConverter toBytesConverter = new BigNumsToBytesConverter();
+    /**
+     * Width of the prime.
+     */
+    private final BigNumContext context;
 
-    private final static BytesToBigNumsConverter toBigNumsConverter = new BytesToBigNumsConverter();
+    private final BigNumsToBytesConverter toBytesConverter;
+
+    private final BytesToBigNumsConverter toBigNumsConverter;
 
     private final PublicKey publicKey = new PublicKey();
 
     private final BigNum primeMinusOne;
 
+    private final BarrettReducer primeMinusOneReducer;
+
+    private final BarrettReducer primeReducer;
+
     private final BigNum privateKey = new BigNum();
 
     public static BigInteger bi(BigNum x) {
@@ -36,14 +95,20 @@ public class ElGamalSignatureScheme implements SignatureScheme {
     }
 
     public ElGamalSignatureScheme() {
+        context = BigNumContext.DEFAULT;
+        toBytesConverter = new BigNumsToBytesConverter(context);
+        toBigNumsConverter = new BytesToBigNumsConverter(context);
+
         // parameters below were generated using a separate project "Generator"
         String prime = "0000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000011110000010010011011011001011101110000111111100000101010110001001101100000010110010001110000000000100110011110100001011111001010100110100011101010111000001101110010111000011100011110111111101111000111101101001000101010011111010010010101110000011100101100011011110101000000100000001101000001101011101011011001110011001000101101000000000001111111101101010110111001000001011010101101101000000001101101110100110110001101110011111111011110011110000011111110100111011100000101010011001110011101100011001010110011101110111100111100110111010001100110111110111001110110100101001111000001101001101100001000101100001000101010101000011100000100010011001110001110000001100110111011001011100101110001000000111110000111101011010101000010001000001010011100010110001010011011010001001011010010100001100101001100001010000101111011101000110000101001011011100011111100000000001111000101111100100100110101011001010100110110101011101100011001011101000111110100001110111110001101000111001101110110011111010001100101010001110111000011011000100101110000101111101010000010110110001101110001001010001011001001011011100011010011110110100101110110011000111111101011111010011011111011100000011010000001000101001101111010110111101110111111110111101010100001100111010010101111000000110010001010101111001010001101001010000100100100011010111011000101011000100111000010101010000011111100101111111010100100111101100100101000010110011011111101100101111110111011101000001001011011001100001100100001011111110111010001010101110100100011111111000001110000111110010000101011000110100111010110010100110110000101111010000010101110101101010010000011111011101001111010111111110001000111001001000111111110111110001000011110111110100010101101000000010001011001110001111000110001010011100001010011010101001101001000101011100001010011001000101110010101110010010001010011101100001100011000001010000101000001101110001111001000000111100011010110100111001111001000100000111101011011110101110100000011111100110000001011000001100100011000010010011110010001010010011111001011101110001101001000010000010011";
         publicKey.prime.initializeFromBinaryString(prime);
+        primeReducer = new BarrettReducer(publicKey.prime);
         
         // we often use (p - 1) so we precompute it
         // it is also the order of multiplicative group Zp
         primeMinusOne = new BigNum(publicKey.prime);
         primeMinusOne.subtract(BigNum.ONE);
+        primeMinusOneReducer = new BarrettReducer(primeMinusOne);
 
         String generator = "0000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000001010011000001100111010110110000011101000000011001100100100001001111110110011111000110100110001111100111000100010010011000001001101111101100010001111011100010000101111100001001000100000110110100000011001101110101010110101100001001000000000010000111011010101111000100110001010001010101000001100000001010111000011101101101000000110000011110011111110010100010011111011100010110011011100100001110001110101100101100100111101111101010000111111001000010010000110111000000000101101011100011101101110100011101011001000011101001100010110001010100001001011001111111101011100000101010101001010000001100111100101011110010000111110000100011110010111111000111000000111100111111101010000010101110111010010011101011101100111100111011101101101010010111110100111110111010110010101001010000110101110001100101011010011100111110000100101101001110101001110010010111100001100111101101101010000010001100110111101101110010000011101001001110101010011001000001011001111010100101010100011001110011100001010000001101010010111011100110110010001111111000111101000110001001110110111010111110010001010110011110111100111010010110000011011101000000000011000000010001010101100000001010110111001000100000110101101100111111100000011001011000010111111010010001101001110111101101111010000110110000000000101110111010000110101001000011100010110011000000100111011101010010000001101011001011010011000001011001010101110110110111100101100000110011001010011011000101110101111101110110110110011100010111010110000100001110110011011001000110001001000010000100000011011110100100011011101101001010000101001111111001011111000110100101111001100101111100110001001101010100101001000110011101001110110011011101110001100111100011100110001101000111010110111011101010001001001011110100110101000100011100111011000011011111100011101010000001110110010100010101001111111001101001111100001011001101110101011011011010011101101010100011111110000101011001110001010110011111111001001100101001011010000111100000101000111011010100001100000101001101001110111000101010011100000101010110101101001100001011010111000000101000";
         publicKey.generator.initializeFromBinaryString(generator);
@@ -60,17 +125,85 @@ public class ElGamalSignatureScheme implements SignatureScheme {
         // a is the private key
     }
 
+    /**
+     * Creates a signature scheme with new parameters of given width.
+     *
+     * Generating a safe prime takes a long time for wide primes.
+     *
+     * @param context Width of the prime (at least 512 bits).
+     */
+    public ElGamalSignatureScheme(BigNumContext context) {
+        if (context.getBits() < MIN_BITS) {
+            throw new IllegalArgumentException("ElGamal prime has to have at least " + MIN_BITS + " bits");
+        }
+
+        this.context = context;
+        toBytesConverter = new BigNumsToBytesConverter(context);
+        toBigNumsConverter = new BytesToBigNumsConverter(context);
+
+        // p = 2 * q + 1 has the most significant bit of the width set if q
+        // has the second one set
+        BigNum maximum = context.randomNumber();
+        maximum.setBit(context.getFirstBit(), 0);
+        maximum.setBit(context.getFirstBit() + 1, 1);
+        maximum.setBit(BigNum.BITS - 1, 1);
+
+        Pair primeWithGenerator = PrimeGenerator.getInstance().generateSafePrimeWithGenerator(maximum);
+        publicKey.prime = primeWithGenerator.first;
+        publicKey.generator = primeWithGenerator.second;
+        primeReducer = new BarrettReducer(publicKey.prime);
+
+        primeMinusOne = new BigNum(publicKey.prime);
+        primeMinusOne.subtract(BigNum.ONE);
+        primeMinusOneReducer = new BarrettReducer(primeMinusOne);
+
+        // private key is a random number: 1 <= a < p - 1
+        do {
+            privateKey.randomize(context.getBlocks());
+            primeMinusOneReducer.reduce(privateKey);
+        } while (!privateKey.absGreaterOrEqualTo(BigNum.ONE));
+
+        // y = generator^a mod p
+        publicKey.y = publicKey.getGeneratorTable().power(privateKey);
+    }
+
     @Override
     public byte[] sign(byte[] originalMessage) {
+        return sign(hash(originalMessage));
+    }
+
+    /**
+     * Signs given file.
+     *
+     * The file is read in blocks while it is hashed so its size is not
+     * limited by the heap or by the size of an array.
+     *
+     * @param file File to sign.
+     * @return Signature of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    @Override
+    public byte[] sign(Path file) throws IOException {
+        return sign(digestToBigNum(sha256(file)));
+    }
+
+    /**
+     * Signs given digest of a message.
+     *
+     * @param digest Digest of the message.
+     * @return Signature.
+     */
+    private byte[] sign(BigNum digest) {
         BigNum k = new BigNum();
-        BigNum divisor = null;
+        // any value other than 1 makes the loop below draw another k
+        BigNum divisor = new BigNum(BigNum.ZERO);
 
         // we need a random number: 1 <= k < p - 1
         // k should be coprime with (p - 1), i. e. gcd(k, p - 1) = 1
         // it is crucial to use different k for every signing, otherwise the 
         // private key can be determined with high probability
         do {
-            k.randomize(BigNum.BLOCKS / 2);
+            k.randomize(context.getBlocks());
             if (!primeMinusOne.absGreaterThan(k) || !k.absGreaterThan(BigNum.ONE)) {
                 continue;
             }
@@ -80,21 +213,19 @@ public class ElGamalSignatureScheme implements SignatureScheme {
         } while (!divisor.equals(BigNum.ONE));
 
         // signature is the pair (r, s)
-        BigNum r = new BigNum(publicKey.generator);
-        r.powerModulo(k, publicKey.prime);
+        // generator is fixed so its powers are precomputed
+        BigNum r = publicKey.getGeneratorTable().power(k);
 
         BigNum kInverse = euclideanSolver.inverseModulo(k, primeMinusOne);
 
-        BigNum digest = hash(originalMessage);
-
         BigNum s = new BigNum(privateKey);
         s.multiply(r);
-        s.modulo(primeMinusOne);
+        primeMinusOneReducer.reduce(s);
         s.setSign(-1);
         s.add(digest);
-        s.modulo(primeMinusOne);
+        primeMinusOneReducer.reduce(s);
         s.multiply(kInverse);
-        s.modulo(primeMinusOne);
+        primeMinusOneReducer.reduce(s);
 
         BigNum[] signature = new BigNum[]{r, s};
         return toBytesConverter.bigNumArrayToBytes(signature);
@@ -102,6 +233,97 @@ public class ElGamalSignatureScheme implements SignatureScheme {
 
     @Override
     public boolean verify(byte[] originalMessage, byte[] signature) {
+        return verify(hash(originalMessage), signature);
+    }
+
+    /**
+     * Verifies the signature of given file.
+     *
+     * The file is read in blocks while it is hashed so its size is not
+     * limited by the heap or by the size of an array.
+     *
+     * @param file Signed file.
+     * @param signature Signature of the file.
+     * @return True if the signature is valid.
+     * @throws IOException If the file cannot be read.
+     */
+    @Override
+    public boolean verify(Path file, byte[] signature) throws IOException {
+        return verify(digestToBigNum(sha256(file)), signature);
+    }
+
+    /**
+     * Verifies the signature of a message with given digest.
+     *
+     * @param digest Digest of the message.
+     * @param signature Signature of the message.
+     * @return True if the signature is valid.
+     */
+    private boolean verify(BigNum digest, byte[] signature) {
+        BigNum[] decodedSignature = decodeSignature(signature);
+        if (decodedSignature == null) {
+            return false;
+        }
+
+        return verify(decodedSignature[0], decodedSignature[1], digest);
+    }
+
+    /**
+     * Verifies many signatures at once.
+     *
+     * Messages are hashed in parallel. Then all signatures are checked with a
+     * single randomized equation: every verification equation
+     * y^r * r^s = generator^H(m) is raised to a random odd 64-bit power t and
+     * the equations are multiplied, so that
+     * y^(sum of t * r) * product of r^(t * s) = generator^(sum of t * H(m)).
+     * Powers of y and the generator are calculated only once (with the
+     * precomputed tables) and powers of r are calculated in pairs. When the
+     * check fails the batch is split in halves to locate invalid signatures.
+     *
+     * An invalid signature passes the check only if the random power hides
+     * the error, the probability is at most 2^(-63) for errors of large order
+     * (p - 1 may have small factors and errors of a small order d pass with
+     * probability about 1/d).
+     *
+     * @param messages Original messages.
+     * @param signatures Signatures of the messages (in the same order).
+     * @return Bitset with bit i set if and only if i-th signature is valid.
+     */
+    @Override
+    public BitSet verifyBatch(List<byte[]> messages, List<byte[]> signatures) {
+        if (messages.size() != signatures.size()) {
+            throw new IllegalArgumentException("Every message needs exactly one signature");
+        }
+
+        List<byte[]> digests = hashInParallel(messages);
+
+        List<BatchItem> items = new ArrayList<>();
+        for (int i = 0; i < signatures.size(); ++i) {
+            BigNum[] decodedSignature = decodeSignature(signatures.get(i));
+            // malformed signatures are invalid and could break the batch
+            // equation (e.g. r = 0) so they are rejected immediately
+            if (decodedSignature != null) {
+                items.add(new BatchItem(i, decodedSignature[0], decodedSignature[1], digestToBigNum(digests.get(i))));
+            }
+        }
+
+        BitSet result = new BitSet(messages.size());
+        verifyBatch(items, result);
+        return result;
+    }
+
+    /**
+     * Decodes a signature and checks if both its parts are in range.
+     *
+     * @param signature Encoded signature.
+     * @return Pair (r, s) or null if the signature does not consist of exactly
+     * two numbers with 1 <= r <= p - 1 and 0 <= s < p - 1.
+     */
+    private BigNum[] decodeSignature(byte[] signature) {
+        if (signature == null || signature.length != 2 * toBigNumsConverter.getBytesPerBigNum()) {
+            return null;
+        }
+
         BigNum[] decodedSignature = toBigNumsConverter.convert(signature);
         BigNum r = decodedSignature[0];
         BigNum s = decodedSignature[1];
@@ -109,25 +331,160 @@ public class ElGamalSignatureScheme implements SignatureScheme {
         // r = generator^k mod p
         // it means that 1 <= r <= p - 1
         if (!r.absGreaterOrEqualTo(BigNum.ONE) || !primeMinusOne.absGreaterOrEqualTo(r)) {
-            return false;
+            return null;
         }
 
-        BigNum exponentY = new BigNum(publicKey.y);
-        exponentY.powerModulo(r, publicKey.prime);
+        // s is reduced modulo p - 1
+        if (!primeMinusOne.absGreaterThan(s)) {
+            return null;
+        }
 
-        BigNum exponentR = new BigNum(r);
-        exponentR.powerModulo(s, publicKey.prime);
+        return decodedSignature;
+    }
 
-        exponentY.multiply(exponentR);
-        exponentY.modulo(publicKey.prime);
+    /**
+     * Verifies a signature of the message with given digest.
+     *
+     * @param r First part of the signature (already checked to be in range).
+     * @param s Second part of the signature.
+     * @param digest Digest of the original message.
+     * @return True if the signature is valid.
+     */
+    private boolean verify(BigNum r, BigNum s, BigNum digest) {
+        // y^r * r^s mod p is calculated in a single pass over the exponents
+        BigNum exponentY = new BigNum(publicKey.y);
+        exponentY.multiPowerModulo(r, r, s, publicKey.getPrimeContext());
 
-        BigNum digest = hash(originalMessage);
-        BigNum pattern = new BigNum(publicKey.generator);
-        pattern.powerModulo(digest, publicKey.prime);
+        BigNum pattern = publicKey.getGeneratorTable().power(digest);
 
         return (exponentY.equals(pattern));
     }
 
+    /**
+     * Verifies given signatures and sets bits of the valid ones.
+     *
+     * @param items Signatures to verify.
+     * @param result Bitset indexed by positions of the signatures in the batch.
+     */
+    private void verifyBatch(List<BatchItem> items, BitSet result) {
+        if (items.isEmpty()) {
+            return;
+        }
+
+        if (items.size() <= INDIVIDUAL_VERIFICATION_THRESHOLD) {
+            for (BatchItem item : items) {
+                if (verify(item.r, item.s, item.digest)) {
+                    result.set(item.index);
+                }
+            }
+            return;
+        }
+
+        if (checkBatchEquation(items)) {
+            for (BatchItem item : items) {
+                result.set(item.index);
+            }
+            return;
+        }
+
+        // at least one signature is invalid so we look for it in both halves
+        int half = items.size() / 2;
+        verifyBatch(items.subList(0, half), result);
+        verifyBatch(items.subList(half, items.size()), result);
+    }
+
+    /**
+     * Checks the randomized product of verification equations of given
+     * signatures.
+     *
+     * @param items Signatures to verify.
+     * @return True if the product of the equations holds.
+     */
+    private boolean checkBatchEquation(List<BatchItem> items) {
+        // exponents are reduced modulo p - 1 which is the order of the group
+        BigNum yExponent = new BigNum();
+        BigNum generatorExponent = new BigNum();
+        BigNum[] rExponents = new BigNum[items.size()];
+
+        for (int i = 0; i < items.size(); ++i) {
+            BatchItem item = items.get(i);
+
+            // odd multiplier so that errors of order 2 are always detected
+            BigNum t = new BigNum();
+            t.randomize(BATCH_MULTIPLIER_BLOCKS);
+            t.setBit(BigNum.BITS - 1, 1);
+
+            BigNum product = new BigNum(item.r);
+            product.multiply(t);
+            yExponent.add(product);
+            primeMinusOneReducer.reduce(yExponent);
+
+            product = new BigNum(item.digest);
+            product.multiply(t);
+            generatorExponent.add(product);
+            primeMinusOneReducer.reduce(generatorExponent);
+
+            rExponents[i] = new BigNum(item.s);
+            primeMinusOneReducer.reduce(rExponents[i]);
+            rExponents[i].multiply(t);
+            primeMinusOneReducer.reduce(rExponents[i]);
+        }
+
+        BigNum left = publicKey.getYTable().power(yExponent);
+
+        // powers of r are calculated in pairs to share squarings
+        for (int i = 0; i < items.size(); i += 2) {
+            BigNum power = new BigNum(items.get(i).r);
+            if (i + 1 < items.size()) {
+                power.multiPowerModulo(rExponents[i], items.get(i + 1).r, rExponents[i + 1], publicKey.getPrimeContext());
+            } else {
+                power.powerModulo(rExponents[i], publicKey.getPrimeContext());
+            }
+            primeReducer.multiplyModulo(left, power);
+        }
+
+        BigNum right = publicKey.getGeneratorTable().power(generatorExponent);
+
+        return left.equals(right);
+    }
+
+    /**
+     * Computes SHA-256 hashes of given messages using all available
+     * processors.
+     *
+     * Only hashing is done in parallel, big number calculations stay in the
+     * calling thread.
+     *
+     * @param messages Messages to hash.
+     * @return Hashes of the messages (in the same order).
+     */
+    private List<byte[]> hashInParallel(List<byte[]> messages) {
+        ExecutorService executor = HashingThreads.EXECUTOR;
+
+        List<Future<byte[]>> futures = new ArrayList<>(messages.size());
+        for (final byte[] message : messages) {
+            futures.add(executor.submit(new Callable<byte[]>() {
+
+                @Override
+                public byte[] call() {
+                    return sha256(message);
+                }
+            }));
+        }
+
+        List<byte[]> digests = new ArrayList<>(messages.size());
+        for (int i = 0; i < futures.size(); ++i) {
+            try {
+                digests.add(futures.get(i).get());
+            } catch (InterruptedException | ExecutionException ex) {
+                Logger.getLogger(ElGamalSignatureScheme.class.getName()).log(Level.SEVERE, null, ex);
+                digests.add(sha256(messages.get(i)));
+            }
+        }
+
+        return digests;
+    }
+
     /**
      * Computes the digest of the original message.
      * 
@@ -139,18 +496,119 @@ public class ElGamalSignatureScheme implements SignatureScheme {
      * @return SHA-256 hash of the message.
      */
     private BigNum hash(byte[] originalMessage) {
-        try {
-            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-            byte[] digest = messageDigest.digest(originalMessage);
-            byte[] paddedDigest = new byte[BytesToBigNumsConverter.BYTES_PER_BIGNUM];
-            for (int i = 0; i < digest.length; ++i) {
-                paddedDigest[paddedDigest.length - digest.length + i] = digest[i];
+        return digestToBigNum(sha256(originalMessage));
+    }
+
+    /**
+     * Computes SHA-256 hash of the message.
+     *
+     * @param message Message to hash.
+     * @return Hash of the message.
+     */
+    private static byte[] sha256(byte[] message) {
+        return newSha256().digest(message);
+    }
+
+    /**
+     * Computes SHA-256 hash of given file.
+     *
+     * The file is read sequentially into a reused direct buffer of the thread
+     * and the digest is updated with every block, so files larger than 2 GB
+     * can be hashed as well.
+     *
+     * @param file File to hash.
+     * @return Hash of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    private static byte[] sha256(Path file) throws IOException {
+        MessageDigest digest = newSha256();
+
+        ByteBuffer buffer = READ_BUFFERS.get();
+        buffer.clear();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
             }
-            return toBigNumsConverter.convert(paddedDigest)[0];
+        }
+
+        return digest.digest();
+    }
+
+    /**
+     * Creates a SHA-256 message digest.
+     *
+     * @return New message digest.
+     * @throws IllegalStateException If the JVM does not provide SHA-256 (every
+     * Java platform is required to support it).
+     */
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException ex) {
-            Logger.getLogger(ElGamalSignatureScheme.class.getName()).log(Level.SEVERE, null, ex);
+            throw new IllegalStateException("SHA-256 is not available", ex);
         }
+    }
 
-        return null;
+    /**
+     * Converts a message digest into a big number.
+     *
+     * @param digest Message digest.
+     * @return Big number equal to the digest.
+     */
+    private BigNum digestToBigNum(byte[] digest) {
+        byte[] paddedDigest = new byte[toBigNumsConverter.getBytesPerBigNum()];
+        for (int i = 0; i < digest.length; ++i) {
+            paddedDigest[paddedDigest.length - digest.length + i] = digest[i];
+        }
+        return toBigNumsConverter.convert(paddedDigest)[0];
+    }
+
+    /**
+     * Threads which hash messages of all batches.
+     *
+     * The pool is created when the first batch is verified and it is shared by
+     * all schemes. Its threads are daemons so they do not keep the JVM alive.
+     */
+    private static class HashingThreads {
+
+        private final static ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+
+                    private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+                    @Override
+                    public Thread newThread(Runnable task) {
+                        Thread thread = defaultFactory.newThread(task);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Decoded signature which takes part in batch verification.
+     */
+    private static class BatchItem {
+
+        /**
+         * Position of the signature in the batch.
+         */
+        private final int index;
+
+        private final BigNum r;
+
+        private final BigNum s;
+
+        private final BigNum digest;
+
+        public BatchItem(int index, BigNum r, BigNum s, BigNum digest) {
+            this.index = index;
+            this.r = r;
+            this.s = s;
+            this.digest = digest;
+        }
     }
 }
@@ -1,18 +1,128 @@
 package pl.kryptografia.elgamal.signature;
 
 import pl.kryptografia.elgamal.bignum.BigNum;
+import pl.kryptografia.elgamal.bignum.FixedBaseTable;
+import pl.kryptografia.elgamal.bignum.MontgomeryContext;
 
 /**
+ * ElGamal public key (p, generator, y).
  *
+ * Values derived from the key (Montgomery context of p and precomputed powers
+ * of the generator and y) are built lazily on first use, so the key must not be
+ * modified afterwards.
  */
 public class PublicKey {
 
+    /**
+     * Default memory budget of a single table of precomputed powers (in bytes).
+     */
+    public final static long DEFAULT_PRECOMPUTATION_BUDGET = 512 * 1024;
+
     public BigNum prime = new BigNum();
 
     public BigNum generator = new BigNum();
 
     public BigNum y = new BigNum();
 
+    /**
+     * Maximum size of a single table of precomputed powers (in bytes).
+     */
+    private volatile long precomputationBudget = DEFAULT_PRECOMPUTATION_BUDGET;
+
+    private volatile MontgomeryContext primeContext;
+
+    private volatile FixedBaseTable generatorTable;
+
+    private volatile FixedBaseTable yTable;
+
+    /**
+     * Returns Montgomery context of the prime.
+     *
+     * @return Context for calculations modulo p.
+     */
+    public MontgomeryContext getPrimeContext() {
+        MontgomeryContext context = primeContext;
+        if (context == null) {
+            synchronized (this) {
+                context = primeContext;
+                if (context == null) {
+                    context = new MontgomeryContext(prime);
+                    primeContext = context;
+                }
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Returns precomputed powers of the generator.
+     *
+     * @return Table used to calculate generator^x mod p.
+     */
+    public FixedBaseTable getGeneratorTable() {
+        FixedBaseTable table = generatorTable;
+        if (table == null) {
+            synchronized (this) {
+                table = generatorTable;
+                if (table == null) {
+                    table = createTable(generator);
+                    generatorTable = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Returns precomputed powers of y.
+     *
+     * @return Table used to calculate y^x mod p.
+     */
+    public FixedBaseTable getYTable() {
+        FixedBaseTable table = yTable;
+        if (table == null) {
+            synchronized (this) {
+                table = yTable;
+                if (table == null) {
+                    table = createTable(y);
+                    yTable = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Sets the maximum size of a single table of precomputed powers.
+     *
+     * Tables which have already been built are dropped and rebuilt on next
+     * use.
+     *
+     * @param bytes Memory budget in bytes.
+     */
+    public synchronized void setPrecomputationBudget(long bytes) {
+        precomputationBudget = bytes;
+        generatorTable = null;
+        yTable = null;
+    }
+
+    public long getPrecomputationBudget() {
+        return precomputationBudget;
+    }
+
+    /**
+     * Creates a table of precomputed powers of given base modulo p.
+     *
+     * Exponents are always less than p so the table covers as many bits as p
+     * has.
+     *
+     * @param base Fixed base.
+     * @return Table of precomputed powers.
+     */
+    private FixedBaseTable createTable(BigNum base) {
+        return new FixedBaseTable(base, prime.bitLength(), getPrimeContext(), precomputationBudget);
+    }
+
     @Override
     public String toString() {
         return prime.toPrettyString() + "\n" + generator.toPrettyString()
@@ -1,5 +1,10 @@
 package pl.kryptografia.elgamal.signature;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+
 /**
  *
  */
@@ -8,4 +13,32 @@ public interface SignatureScheme {
     byte[] sign(byte[] originalMessage);
     
     boolean verify(byte[] originalMessage, byte[] signature);
+
+    /**
+     * Signs given file without loading it into memory.
+     *
+     * @param file File to sign.
+     * @return Signature of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    byte[] sign(Path file) throws IOException;
+
+    /**
+     * Verifies the signature of given file without loading it into memory.
+     *
+     * @param file Signed file.
+     * @param signature Signature of the file.
+     * @return True if the signature is valid.
+     * @throws IOException If the file cannot be read.
+     */
+    boolean verify(Path file, byte[] signature) throws IOException;
+
+    /**
+     * Verifies many signatures at once.
+     *
+     * @param messages Original messages.
+     * @param signatures Signatures of the messages (in the same order).
+     * @return Bitset with bit i set if and only if i-th signature is valid.
+     */
+    BitSet verifyBatch(List<byte[]> messages, List<byte[]> signatures);
 }
@@ -0,0 +1,102 @@
+package pl.kryptografia.rabin.bignum;
+
+/**
+ * Reduces numbers modulo a fixed modulus using Barrett reduction.
+ *
+ * The reducer precomputes mu = floor(b^(2k) / m) where b = 2^32, m is the
+ * modulus and k is the number of its significant blocks. Afterwards any number
+ * less than b^(2k) (in particular a product of two reduced numbers) can be
+ * reduced with two multiplications and at most two subtractions instead of a
+ * bit by bit division. Unlike Montgomery multiplication it works for even
+ * moduli as well.
+ */
+public class BarrettReducer implements ModularMultiplier {
+
+    /**
+     * Modulus.
+     */
+    private final BigNum modulus;
+
+    /**
+     * Number of significant blocks of the modulus.
+     */
+    private final int length;
+
+    /**
+     * floor(2^(64 * length) / modulus).
+     */
+    private final BigNum mu;
+
+    /**
+     * Creates a Barrett reducer for given modulus.
+     *
+     * @param modulus Modulus greater than 1 which does not exceed half of the
+     * available blocks.
+     */
+    public BarrettReducer(BigNum modulus) {
+        if (!modulus.absGreaterThan(BigNum.ONE)) {
+            throw new IllegalArgumentException("Barrett modulus has to be greater than 1");
+        }
+
+        int emptyBlocks = 0;
+        while (modulus.getBlock(emptyBlocks) == 0) {
+            ++emptyBlocks;
+        }
+
+        if (emptyBlocks < BigNum.BLOCKS / 2) {
+            throw new IllegalArgumentException("Barrett modulus has to fit into half of the blocks");
+        }
+
+        this.modulus = new BigNum(modulus);
+        this.modulus.setSign(1);
+        length = BigNum.BLOCKS - emptyBlocks;
+
+        // 2^(64 * length) may not fit into BigNum so we divide 2^(64 * length) - 1
+        // instead, both quotients are equal unless modulus divides 2^(64 * length)
+        BigNum dividend = new BigNum();
+        for (int i = BigNum.BLOCKS - 2 * length; i < BigNum.BLOCKS; ++i) {
+            dividend.replaceBlock(i, 0xFFFFFFFFL);
+        }
+
+        mu = new BigNum(dividend);
+        BigNum remainder = new BigNum();
+        mu.divideAndRemainder(this.modulus, remainder);
+        remainder.add(BigNum.ONE);
+        if (remainder.equals(this.modulus)) {
+            mu.add(BigNum.ONE);
+        }
+    }
+
+    /**
+     * Divides given number modulo the modulus of this reducer.
+     *
+     * Works like BigNum.modulo: only the absolute value is reduced and
+     * negative numbers are corrected afterwards.
+     *
+     * @param x Number to reduce.
+     */
+    public void reduce(BigNum x) {
+        x.barrettReduce(modulus, mu, length);
+    }
+
+    @Override
+    public void multiplyModulo(BigNum x, BigNum y) {
+        x.multiply(y);
+        reduce(x);
+    }
+
+    @Override
+    public void squareModulo(BigNum x) {
+        x.square();
+        reduce(x);
+    }
+
+    /**
+     * Returns the modulus of this reducer.
+     *
+     * @return Modulus.
+     */
+    public BigNum getModulus() {
+        return modulus;
+    }
+}
@@ -0,0 +1,451 @@
+package pl.kryptografia.rabin.bignum;
+
+/**
+ * Precomputed values used for Montgomery multiplication modulo a fixed odd
+ * modulus.
+ *
+ * A number x is represented in Montgomery form as x * R mod n where n is the
+ * modulus and R = 2^(64 * k) with k equal to the number of significant 64-bit
+ * limbs of n. Multiplication of two numbers in Montgomery form does not need any
+ * division so the context pays off when many multiplications are performed
+ * modulo the same number (e.g. in modular exponentiation).
+ *
+ * Numbers are multiplied in arrays of limbs (see MontgomeryKernel). Single
+ * multiplications of BigNums convert their operands every time, while
+ * exponentiations keep all intermediate values in limbs.
+ */
+public class MontgomeryContext implements ModularMultiplier {
+
+    /**
+     * Odd modulus.
+     */
+    private final BigNum modulus;
+
+    private final MontgomeryKernel kernel;
+
+    /**
+     * R^2 mod modulus in limbs, used to convert numbers into Montgomery form.
+     */
+    private final long[] rSquared;
+
+    /**
+     * R mod modulus in limbs, i.e. 1 in Montgomery form.
+     */
+    private final long[] montgomeryOne;
+
+    /**
+     * 1 in limbs, used to convert numbers from Montgomery form.
+     */
+    private final long[] one;
+
+    /**
+     * Creates a Montgomery context for given modulus.
+     *
+     * @param modulus Odd modulus which does not exceed half of the available
+     * blocks.
+     */
+    public MontgomeryContext(BigNum modulus) {
+        if ((modulus.getBlock(BigNum.BLOCKS - 1) & 1) == 0) {
+            throw new IllegalArgumentException("Montgomery modulus has to be odd");
+        }
+
+        int emptyBlocks = 0;
+        while (modulus.getBlock(emptyBlocks) == 0) {
+            ++emptyBlocks;
+        }
+
+        if (emptyBlocks < BigNum.BLOCKS / 2) {
+            throw new IllegalArgumentException("Montgomery modulus has to fit into half of the blocks");
+        }
+
+        this.modulus = new BigNum(modulus);
+        this.modulus.setSign(1);
+        int limbs = (BigNum.BLOCKS - emptyBlocks + 1) / 2;
+        kernel = MontgomeryKernel.create(this.modulus, limbs);
+
+        // R = 2^(64 * limbs)
+        BigNum r = new BigNum();
+        r.setBit(BigNum.BITS - 2 * BigNum.BLOCK_SIZE * limbs - 1, 1);
+        r.modulo(this.modulus);
+        montgomeryOne = new long[kernel.getLength()];
+        kernel.load(r, montgomeryOne);
+
+        r.square();
+        r.modulo(this.modulus);
+        rSquared = new long[kernel.getLength()];
+        kernel.load(r, rSquared);
+
+        one = new long[kernel.getLength()];
+        kernel.load(BigNum.ONE, one);
+    }
+
+    /**
+     * Converts given number into Montgomery form.
+     *
+     * @param x Number to convert (its sign is ignored).
+     */
+    public void toMontgomery(BigNum x) {
+        x.modulo(modulus);
+        multiply(x, rSquared);
+    }
+
+    /**
+     * Converts given number from Montgomery form to the standard form.
+     *
+     * @param x Number in Montgomery form.
+     */
+    public void fromMontgomery(BigNum x) {
+        multiply(x, one);
+    }
+
+    /**
+     * Multiplies x by y in Montgomery form and stores the result in x.
+     *
+     * @param x Multiplicand in Montgomery form (replaced with the product).
+     * @param y Multiplier in Montgomery form.
+     */
+    public void montMul(BigNum x, BigNum y) {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        long[] b = scratch(pool);
+        kernel.load(y, b);
+        multiply(x, b);
+
+        pool.close();
+    }
+
+    /**
+     * Squares x in Montgomery form and stores the result in x.
+     *
+     * @param x Number in Montgomery form (replaced with the square).
+     */
+    public void montSquare(BigNum x) {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        long[] a = scratch(pool);
+        kernel.load(x, a);
+        kernel.square(a, scratch(pool));
+        kernel.store(a, x);
+
+        pool.close();
+    }
+
+    @Override
+    public void multiplyModulo(BigNum x, BigNum y) {
+        montMul(x, y);
+    }
+
+    @Override
+    public void squareModulo(BigNum x) {
+        montSquare(x);
+    }
+
+    /**
+     * Returns the modulus of this context.
+     *
+     * @return Modulus.
+     */
+    public BigNum getModulus() {
+        return modulus;
+    }
+
+    /**
+     * Returns the number of limbs of numbers in Montgomery form.
+     *
+     * @return Length of arrays used by the limb methods.
+     */
+    int getLength() {
+        return kernel.getLength();
+    }
+
+    /**
+     * Converts given number into Montgomery form in limbs.
+     *
+     * @param x Number to convert (it is not modified, its sign is ignored).
+     * @param result Array for the limbs.
+     */
+    void toMontgomery(BigNum x, long[] result) {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        BigNum reduced = pool.get();
+        reduced.initializeFromBigNum(x);
+        reduced.modulo(modulus);
+        kernel.load(reduced, result);
+        kernel.multiply(result, rSquared, scratch(pool));
+
+        pool.close();
+    }
+
+    /**
+     * Converts given number in limbs from Montgomery form and stores it in a
+     * BigNum.
+     *
+     * @param x Limbs of a number in Montgomery form (replaced with the
+     * standard form).
+     * @param result Number for the result.
+     */
+    void fromMontgomery(long[] x, BigNum result) {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        kernel.multiply(x, one, scratch(pool));
+        kernel.store(x, result);
+
+        pool.close();
+    }
+
+    /**
+     * Multiplies numbers in limbs in Montgomery form.
+     *
+     * @param x Multiplicand (replaced with the product).
+     * @param y Multiplier.
+     * @param scratch Scratch array (see scratch(BigNumPool)).
+     */
+    void multiply(long[] x, long[] y, long[] scratch) {
+        kernel.multiply(x, y, scratch);
+    }
+
+    /**
+     * Squares a number in limbs in Montgomery form.
+     *
+     * @param x Number to square (replaced with the square).
+     * @param scratch Scratch array (see scratch(BigNumPool)).
+     */
+    void square(long[] x, long[] scratch) {
+        kernel.square(x, scratch);
+    }
+
+    /**
+     * Copies 1 in Montgomery form into given limbs.
+     *
+     * @param x Array for the limbs.
+     */
+    void setMontgomeryOne(long[] x) {
+        System.arraycopy(montgomeryOne, 0, x, 0, montgomeryOne.length);
+    }
+
+    /**
+     * Returns an array from the pool which can hold limbs of numbers of this
+     * context or be used as a scratch array.
+     *
+     * @param pool Pool of the current thread.
+     * @return Array valid until the pool is closed.
+     */
+    static long[] scratch(BigNumPool pool) {
+        return pool.get().scratchBlocks();
+    }
+
+    /**
+     * Raises given number to given power modulo the modulus.
+     *
+     * The base is converted into limbs once and all squarings and
+     * multiplications of the sliding window exponentiation work on limbs.
+     *
+     * @param x Base (replaced with the power, its sign is ignored).
+     * @param exponent Exponent (its sign is ignored).
+     */
+    void power(BigNum x, BigNum exponent) {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        long[] base = scratch(pool);
+        toMontgomery(x, base);
+        long[] result = scratch(pool);
+        slidingWindowPower(base, exponent, result);
+        fromMontgomery(result, x);
+
+        pool.close();
+    }
+
+    /**
+     * Calculates x^exponent * otherBase^otherExponent modulo the modulus.
+     *
+     * @param x First base (replaced with the result, its sign is ignored).
+     * @param exponent Exponent of the first base.
+     * @param otherBase Second base (its sign is ignored).
+     * @param otherExponent Exponent of the second base.
+     */
+    void multiPower(BigNum x, BigNum exponent, BigNum otherBase, BigNum otherExponent) {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        long[] base = scratch(pool);
+        toMontgomery(x, base);
+        long[] other = scratch(pool);
+        toMontgomery(otherBase, other);
+        long[] result = scratch(pool);
+        jointPower(base, exponent, other, otherExponent, result);
+        fromMontgomery(result, x);
+
+        pool.close();
+    }
+
+    /**
+     * Sliding window exponentiation in limbs (see BigNum.slidingWindowPower).
+     *
+     * @param base Base in Montgomery form (it is not modified).
+     * @param exponent Exponent.
+     * @param result Array for the power in Montgomery form.
+     */
+    private void slidingWindowPower(long[] base, BigNum exponent, long[] result) {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        long[] t = scratch(pool);
+        int length = kernel.getLength();
+        int exponentBits = exponent.bitLength();
+        int width = BigNum.windowWidth(exponentBits);
+
+        // powers[i] = base^(2 * i + 1)
+        long[][] powers = new long[1 << (width - 1)][];
+        powers[0] = base;
+        if (powers.length > 1) {
+            long[] baseSquared = scratch(pool);
+            System.arraycopy(base, 0, baseSquared, 0, length);
+            kernel.square(baseSquared, t);
+
+            for (int i = 1; i < powers.length; ++i) {
+                powers[i] = scratch(pool);
+                System.arraycopy(powers[i - 1], 0, powers[i], 0, length);
+                kernel.multiply(powers[i], baseSquared, t);
+            }
+        }
+
+        setMontgomeryOne(result);
+        // squaring 1 is pointless so we remember if anything was multiplied
+        boolean resultIsOne = true;
+
+        // bits of the exponent are numbered from the least significant one
+        int current = exponentBits - 1;
+        while (current >= 0) {
+            if (exponent.getBit(BigNum.BITS - 1 - current) == 0) {
+                if (!resultIsOne) {
+                    kernel.square(result, t);
+                }
+                --current;
+                continue;
+            }
+
+            // find the longest window starting at current bit which has at
+            // most width bits and ends with one
+            int last = Math.max(current - width + 1, 0);
+            while (exponent.getBit(BigNum.BITS - 1 - last) == 0) {
+                ++last;
+            }
+
+            int windowValue = 0;
+            for (int i = current; i >= last; --i) {
+                windowValue = (windowValue << 1) | exponent.getBit(BigNum.BITS - 1 - i);
+            }
+
+            if (resultIsOne) {
+                System.arraycopy(powers[windowValue >>> 1], 0, result, 0, length);
+                resultIsOne = false;
+            } else {
+                for (int i = current; i >= last; --i) {
+                    kernel.square(result, t);
+                }
+                kernel.multiply(result, powers[windowValue >>> 1], t);
+            }
+
+            current = last - 1;
+        }
+
+        pool.close();
+    }
+
+    /**
+     * Joint fixed window exponentiation in limbs (see BigNum.jointPower).
+     *
+     * @param base First base in Montgomery form (it is not modified).
+     * @param exponent Exponent of the first base.
+     * @param otherBase Second base in Montgomery form (it is not modified).
+     * @param otherExponent Exponent of the second base.
+     * @param result Array for the result in Montgomery form.
+     */
+    private void jointPower(long[] base, BigNum exponent, long[] otherBase, BigNum otherExponent,
+            long[] result) {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        long[] t = scratch(pool);
+        int length = kernel.getLength();
+        int exponentBits = Math.max(exponent.bitLength(), otherExponent.bitLength());
+        int width = BigNum.jointWindowWidth(exponentBits);
+        int size = 1 << width;
+
+        // products[i * size + j] = base^i * otherBase^j
+        long[][] products = new long[size * size][];
+        for (int i = 0; i < size; ++i) {
+            for (int j = 0; j < size; ++j) {
+                long[] product = scratch(pool);
+                if (j > 0) {
+                    System.arraycopy(products[i * size + j - 1], 0, product, 0, length);
+                    kernel.multiply(product, otherBase, t);
+                } else if (i > 0) {
+                    System.arraycopy(products[(i - 1) * size], 0, product, 0, length);
+                    kernel.multiply(product, base, t);
+                } else {
+                    setMontgomeryOne(product);
+                }
+                products[i * size + j] = product;
+            }
+        }
+
+        setMontgomeryOne(result);
+        // squaring 1 is pointless so we remember if anything was multiplied
+        boolean resultIsOne = true;
+
+        // windows are aligned to the least significant bit
+        int windows = (exponentBits + width - 1) / width;
+        for (int window = windows - 1; window >= 0; --window) {
+            int windowValue = 0;
+            int otherWindowValue = 0;
+            for (int i = width - 1; i >= 0; --i) {
+                // bits of the exponents are numbered from the least
+                // significant one
+                int bit = window * width + i;
+                windowValue <<= 1;
+                otherWindowValue <<= 1;
+                if (bit < BigNum.BITS) {
+                    windowValue |= exponent.getBit(BigNum.BITS - 1 - bit);
+                    otherWindowValue |= otherExponent.getBit(BigNum.BITS - 1 - bit);
+                }
+            }
+
+            if (!resultIsOne) {
+                for (int i = 0; i < width; ++i) {
+                    kernel.square(result, t);
+                }
+            }
+
+            if (windowValue != 0 || otherWindowValue != 0) {
+                kernel.multiply(result, products[windowValue * size + otherWindowValue], t);
+                resultIsOne = false;
+            }
+        }
+
+        pool.close();
+    }
+
+    /**
+     * Multiplies x by given limbs in Montgomery form.
+     *
+     * @param x Multiplicand (replaced with the product).
+     * @param y Limbs of the multiplier.
+     */
+    private void multiply(BigNum x, long[] y) {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
+
+        long[] a = scratch(pool);
+        kernel.load(x, a);
+        kernel.multiply(a, y, scratch(pool));
+        kernel.store(a, x);
+
+        pool.close();
+    }
+}
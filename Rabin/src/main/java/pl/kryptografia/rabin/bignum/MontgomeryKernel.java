@@ -0,0 +1,486 @@
+package pl.kryptografia.rabin.bignum;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * Montgomery multiplication on numbers stored in arrays of limbs (the least
+ * significant limb first).
+ *
+ * A number is loaded into limbs once and all multiplications of an
+ * exponentiation work on the arrays, so blocks of BigNums are converted only
+ * at the beginning and at the end. If the JVM provides an intrinsic for the
+ * high half of 64-bit products (Java 9 and newer) limbs have 64 bits,
+ * otherwise they are the 32-bit blocks of BigNum. Both give the same results
+ * for the same R = 2^(64 * k).
+ *
+ * Scratch arrays passed to multiply and square need at least
+ * 2 * getLength() + 2 elements.
+ */
+abstract class MontgomeryKernel {
+
+    /**
+     * Number of limbs of the modulus.
+     */
+    final int length;
+
+    /**
+     * Odd modulus in limbs.
+     */
+    final long[] modulus;
+
+    private MontgomeryKernel(BigNum modulus, int length) {
+        this.length = length;
+        this.modulus = new long[length];
+        load(modulus, this.modulus);
+    }
+
+    /**
+     * Creates a kernel for given modulus.
+     *
+     * @param modulus Odd positive modulus.
+     * @param limbs Number of 64-bit limbs of the modulus.
+     * @return Kernel which works on 64-bit limbs if the intrinsic is available
+     * or on 32-bit blocks otherwise.
+     */
+    static MontgomeryKernel create(BigNum modulus, int limbs) {
+        if (UnsignedMultiplication.INTRINSIC) {
+            return new Packed(modulus, limbs);
+        }
+        return new Blockwise(modulus, 2 * limbs);
+    }
+
+    /**
+     * Returns the number of limbs of numbers of this kernel.
+     *
+     * @return Length of the arrays.
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Stores the absolute value of a number in limbs.
+     *
+     * @param x Number less than R.
+     * @param limbs Array for the limbs.
+     */
+    abstract void load(BigNum x, long[] limbs);
+
+    /**
+     * Replaces a number with given limbs and makes it positive.
+     *
+     * @param limbs Limbs of the new value.
+     * @param x Number to replace.
+     */
+    abstract void store(long[] limbs, BigNum x);
+
+    /**
+     * Multiplies x by y and divides the product by R modulo the modulus.
+     *
+     * @param x Multiplicand less than the modulus (replaced with the result).
+     * @param y Multiplier less than the modulus (it may be x).
+     * @param scratch Scratch array.
+     */
+    abstract void multiply(long[] x, long[] y, long[] scratch);
+
+    /**
+     * Squares x and divides the square by R modulo the modulus.
+     *
+     * @param x Number less than the modulus (replaced with the result).
+     * @param scratch Scratch array.
+     */
+    abstract void square(long[] x, long[] scratch);
+
+    /**
+     * Calculates the inverse of an odd number modulo 2^64.
+     *
+     * @param odd Odd number.
+     * @return odd^(-1) mod 2^64.
+     */
+    private static long inverse(long odd) {
+        // Newton iteration doubles the number of correct bits of the inverse
+        // in each step (every odd number is its own inverse modulo 8)
+        long inverse = odd;
+        for (int i = 0; i < 5; ++i) {
+            inverse *= 2 - odd * inverse;
+        }
+        return inverse;
+    }
+
+    /**
+     * Compares two 64-bit numbers treated as unsigned.
+     *
+     * @param a First number.
+     * @param b Second number.
+     * @return True if and only if a is less than b.
+     */
+    private static boolean unsignedLess(long a, long b) {
+        return (a + Long.MIN_VALUE) < (b + Long.MIN_VALUE);
+    }
+
+    /**
+     * Kernel working on 64-bit limbs.
+     *
+     * Every limb multiplication gives a 128-bit product, so the kernel needs a
+     * quarter of the multiplications of the 32-bit one.
+     */
+    private final static class Packed extends MontgomeryKernel {
+
+        private final static MethodHandle MULTIPLY_HIGH = UnsignedMultiplication.MULTIPLY_HIGH;
+
+        /**
+         * -modulus^(-1) mod 2^64.
+         */
+        private final long modulusInverse;
+
+        private Packed(BigNum modulus, int limbs) {
+            super(modulus, limbs);
+            modulusInverse = -inverse(this.modulus[0]);
+        }
+
+        /**
+         * Returns the most significant 64 bits of the unsigned 128-bit
+         * product.
+         *
+         * @param a Multiplicand (treated as unsigned).
+         * @param b Multiplier (treated as unsigned).
+         * @return Most significant half of a * b.
+         * @throws Throwable Never (declared by MethodHandle.invokeExact).
+         */
+        private static long multiplyHigh(long a, long b) throws Throwable {
+            return UnsignedMultiplication.unsignedHigh((long) MULTIPLY_HIGH.invokeExact(a, b), a, b);
+        }
+
+        @Override
+        void load(BigNum x, long[] limbs) {
+            x.packLimbs(limbs, length);
+        }
+
+        @Override
+        void store(long[] limbs, BigNum x) {
+            x.unpackLimbs(limbs, length);
+        }
+
+        @Override
+        void multiply(long[] x, long[] y, long[] scratch) {
+            try {
+                multiplyLimbs(x, y, scratch);
+            } catch (Throwable ex) {
+                // neither implementation of multiplyHigh throws anything
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        void square(long[] x, long[] scratch) {
+            try {
+                squareLimbs(x, scratch);
+            } catch (Throwable ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        /**
+         * Montgomery multiplication with product scanning interleaved with the
+         * reduction (CIOS method), so the partial result never exceeds
+         * length + 2 limbs.
+         *
+         * @param x Multiplicand (replaced with the result).
+         * @param y Multiplier.
+         * @param t Scratch array.
+         * @throws Throwable Never (declared by MethodHandle.invokeExact).
+         */
+        private void multiplyLimbs(long[] x, long[] y, long[] t) throws Throwable {
+            for (int j = 0; j < length + 2; ++j) {
+                t[j] = 0;
+            }
+
+            for (int i = 0; i < length; ++i) {
+                // t += x * y[i]
+                long multiplier = y[i];
+                long carry = 0;
+                for (int j = 0; j < length; ++j) {
+                    long low = x[j] * multiplier;
+                    long high = multiplyHigh(x[j], multiplier);
+                    low += t[j];
+                    if (unsignedLess(low, t[j])) {
+                        ++high;
+                    }
+                    low += carry;
+                    if (unsignedLess(low, carry)) {
+                        ++high;
+                    }
+                    t[j] = low;
+                    carry = high;
+                }
+                long sum = t[length] + carry;
+                t[length + 1] = unsignedLess(sum, carry) ? 1 : 0;
+                t[length] = sum;
+
+                // t = (t + m * modulus) / 2^64 where m is chosen so that the
+                // least significant limb of the sum is equal to zero
+                long m = t[0] * modulusInverse;
+                long low = m * modulus[0];
+                carry = multiplyHigh(m, modulus[0]);
+                if (unsignedLess(low + t[0], low)) {
+                    ++carry;
+                }
+                for (int j = 1; j < length; ++j) {
+                    low = m * modulus[j];
+                    long high = multiplyHigh(m, modulus[j]);
+                    low += t[j];
+                    if (unsignedLess(low, t[j])) {
+                        ++high;
+                    }
+                    low += carry;
+                    if (unsignedLess(low, carry)) {
+                        ++high;
+                    }
+                    t[j - 1] = low;
+                    carry = high;
+                }
+                sum = t[length] + carry;
+                t[length - 1] = sum;
+                t[length] = t[length + 1] + (unsignedLess(sum, carry) ? 1 : 0);
+            }
+
+            finish(t, x);
+        }
+
+        /**
+         * Montgomery squaring.
+         *
+         * The whole square is computed first (every product of two different
+         * limbs once and doubled) and then it is reduced limb by limb, which
+         * needs about 1.5 * length^2 limb multiplications instead of
+         * 2 * length^2.
+         *
+         * @param x Number to square (replaced with the result).
+         * @param t Scratch array.
+         * @throws Throwable Never (declared by MethodHandle.invokeExact).
+         */
+        private void squareLimbs(long[] x, long[] t) throws Throwable {
+            for (int j = 0; j <= 2 * length; ++j) {
+                t[j] = 0;
+            }
+
+            // products of different limbs
+            for (int i = 0; i < length; ++i) {
+                long multiplier = x[i];
+                long carry = 0;
+                for (int j = i + 1; j < length; ++j) {
+                    long low = x[j] * multiplier;
+                    long high = multiplyHigh(x[j], multiplier);
+                    low += t[i + j];
+                    if (unsignedLess(low, t[i + j])) {
+                        ++high;
+                    }
+                    low += carry;
+                    if (unsignedLess(low, carry)) {
+                        ++high;
+                    }
+                    t[i + j] = low;
+                    carry = high;
+                }
+                t[i + length] = carry;
+            }
+
+            // every product of different limbs appears twice in the square
+            long shiftedOut = 0;
+            for (int j = 0; j < 2 * length; ++j) {
+                long limb = t[j];
+                t[j] = (limb << 1) | shiftedOut;
+                shiftedOut = limb >>> 63;
+            }
+
+            // squares of limbs
+            long carry = 0;
+            for (int i = 0; i < length; ++i) {
+                long low = x[i] * x[i];
+                long high = multiplyHigh(x[i], x[i]);
+
+                long sum = t[2 * i] + carry;
+                carry = unsignedLess(sum, carry) ? 1 : 0;
+                sum += low;
+                if (unsignedLess(sum, low)) {
+                    ++carry;
+                }
+                t[2 * i] = sum;
+
+                sum = t[2 * i + 1] + carry;
+                carry = unsignedLess(sum, carry) ? 1 : 0;
+                sum += high;
+                if (unsignedLess(sum, high)) {
+                    ++carry;
+                }
+                t[2 * i + 1] = sum;
+            }
+
+            // t = t / 2^(64 * length) mod modulus, in every step a multiple of
+            // the modulus is added so that the least significant remaining
+            // limb becomes zero
+            for (int i = 0; i < length; ++i) {
+                long m = t[i] * modulusInverse;
+                carry = 0;
+                for (int j = 0; j < length; ++j) {
+                    long low = m * modulus[j];
+                    long high = multiplyHigh(m, modulus[j]);
+                    low += t[i + j];
+                    if (unsignedLess(low, t[i + j])) {
+                        ++high;
+                    }
+                    low += carry;
+                    if (unsignedLess(low, carry)) {
+                        ++high;
+                    }
+                    t[i + j] = low;
+                    carry = high;
+                }
+                for (int j = i + length; carry != 0; ++j) {
+                    long sum = t[j] + carry;
+                    carry = unsignedLess(sum, carry) ? 1 : 0;
+                    t[j] = sum;
+                }
+            }
+
+            // the reduced number is in the most significant half
+            System.arraycopy(t, length, t, 0, length + 1);
+            finish(t, x);
+        }
+
+        /**
+         * Subtracts the modulus from a result of the reduction if it is not
+         * less than the modulus and stores the result in x.
+         *
+         * @param t Result of the reduction (length + 1 limbs), it is less than
+         * 2 * modulus.
+         * @param x Array for the result.
+         */
+        private void finish(long[] t, long[] x) {
+            // the result is less than 2 * modulus so one subtraction is enough
+            boolean subtract = t[length] != 0;
+            if (!subtract) {
+                // the modulus itself is reduced to zero as well
+                subtract = true;
+                for (int j = length - 1; j >= 0; --j) {
+                    if (t[j] != modulus[j]) {
+                        subtract = unsignedLess(modulus[j], t[j]);
+                        break;
+                    }
+                }
+            }
+            if (subtract) {
+                long borrow = 0;
+                for (int j = 0; j < length; ++j) {
+                    long difference = t[j] - modulus[j] - borrow;
+                    borrow = (unsignedLess(t[j], modulus[j]) || (t[j] == modulus[j] && borrow != 0)) ? 1 : 0;
+                    t[j] = difference;
+                }
+            }
+
+            System.arraycopy(t, 0, x, 0, length);
+        }
+    }
+
+    /**
+     * Kernel working on 32-bit blocks (used when the intrinsic is not
+     * available, the portable high half of a 64-bit product is slower than
+     * four 32-bit products).
+     */
+    private final static class Blockwise extends MontgomeryKernel {
+
+        /**
+         * -modulus^(-1) mod 2^32.
+         */
+        private final long modulusInverse;
+
+        private Blockwise(BigNum modulus, int blocks) {
+            super(modulus, blocks);
+            modulusInverse = -inverse(this.modulus[0]) & 0xFFFFFFFFL;
+        }
+
+        @Override
+        void load(BigNum x, long[] blocks) {
+            x.copyBlocks(blocks, length);
+        }
+
+        @Override
+        void store(long[] blocks, BigNum x) {
+            x.replaceMagnitude(blocks, length);
+        }
+
+        /**
+         * Montgomery multiplication with product scanning interleaved with the
+         * reduction (CIOS method), so the partial result never exceeds
+         * length + 2 blocks.
+         *
+         * @param x Multiplicand (replaced with the result).
+         * @param y Multiplier.
+         * @param t Scratch array.
+         */
+        @Override
+        void multiply(long[] x, long[] y, long[] t) {
+            for (int j = 0; j < length + 2; ++j) {
+                t[j] = 0;
+            }
+
+            for (int i = 0; i < length; ++i) {
+                // t += x * y[i]
+                long multiplier = y[i];
+                long carry = 0;
+                for (int j = 0; j < length; ++j) {
+                    // the sum never exceeds 2^64 - 1 so treated as unsigned it
+                    // is always exact
+                    long sum = t[j] + multiplier * x[j] + carry;
+                    t[j] = sum & 0xFFFFFFFFL;
+                    carry = sum >>> 32;
+                }
+                long sum = t[length] + carry;
+                t[length] = sum & 0xFFFFFFFFL;
+                t[length + 1] = sum >>> 32;
+
+                // t = (t + m * modulus) / 2^32 where m is chosen so that the
+                // least significant block of the sum is equal to zero
+                long m = (t[0] * modulusInverse) & 0xFFFFFFFFL;
+                sum = t[0] + m * modulus[0];
+                carry = sum >>> 32;
+                for (int j = 1; j < length; ++j) {
+                    sum = t[j] + m * modulus[j] + carry;
+                    t[j - 1] = sum & 0xFFFFFFFFL;
+                    carry = sum >>> 32;
+                }
+                sum = t[length] + carry;
+                t[length - 1] = sum & 0xFFFFFFFFL;
+                t[length] = t[length + 1] + (sum >>> 32);
+            }
+
+            // the result is less than 2 * modulus so one subtraction is enough
+            boolean subtract = t[length] != 0;
+            if (!subtract) {
+                // the modulus itself is reduced to zero as well
+                subtract = true;
+                for (int j = length - 1; j >= 0; --j) {
+                    if (t[j] != modulus[j]) {
+                        subtract = t[j] > modulus[j];
+                        break;
+                    }
+                }
+            }
+            if (subtract) {
+                long borrow = 0;
+                for (int j = 0; j < length; ++j) {
+                    long difference = t[j] - modulus[j] - borrow;
+                    borrow = difference >>> 63;
+                    t[j] = difference & 0xFFFFFFFFL;
+                }
+            }
+
+            System.arraycopy(t, 0, x, 0, length);
+        }
+
+        @Override
+        void square(long[] x, long[] scratch) {
+            multiply(x, x, scratch);
+        }
+    }
+}
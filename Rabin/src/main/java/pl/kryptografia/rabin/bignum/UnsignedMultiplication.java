@@ -0,0 +1,101 @@
+package pl.kryptografia.rabin.bignum;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Unsigned multiplication of 64-bit numbers.
+ *
+ * Java 9 added Math.multiplyHigh which the JIT compiler turns into a single
+ * instruction. The project is compiled for older versions so the method is
+ * looked up once when the class is initialized and a portable (but much
+ * slower) implementation is selected if it is not available.
+ */
+final class UnsignedMultiplication {
+
+    private final static MethodType BINARY_OPERATION = MethodType.methodType(long.class, long.class, long.class);
+
+    /**
+     * Math.multiplyHigh(long, long) or null if it is not available.
+     */
+    private final static MethodHandle SIGNED_MULTIPLY_HIGH = findSignedMultiplyHigh();
+
+    /**
+     * True if the high half of a product is calculated by the JVM intrinsic.
+     */
+    final static boolean INTRINSIC = SIGNED_MULTIPLY_HIGH != null;
+
+    /**
+     * Handle of type (long, long) -> long which returns the most significant
+     * 64 bits of the signed 128-bit product (Math.multiplyHigh or the portable
+     * implementation).
+     *
+     * It is a constant, so invokeExact is inlined by the JIT compiler. Callers
+     * should invoke it directly in their loops and handle Throwable once
+     * outside them (neither implementation throws).
+     */
+    final static MethodHandle MULTIPLY_HIGH = selectMultiplyHigh();
+
+    private UnsignedMultiplication() {
+    }
+
+    private static MethodHandle findSignedMultiplyHigh() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Math.class, "multiplyHigh", BINARY_OPERATION);
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            return null;
+        }
+    }
+
+    private static MethodHandle selectMultiplyHigh() {
+        if (SIGNED_MULTIPLY_HIGH != null) {
+            return SIGNED_MULTIPLY_HIGH;
+        }
+
+        try {
+            return MethodHandles.lookup().findStatic(UnsignedMultiplication.class, "portableMultiplyHigh",
+                    BINARY_OPERATION);
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    /**
+     * Converts the high half of a signed product to the high half of the
+     * unsigned product.
+     *
+     * @param signedHigh Most significant half of the signed product of a and b.
+     * @param a Multiplicand.
+     * @param b Multiplier.
+     * @return Most significant half of the unsigned product of a and b.
+     */
+    static long unsignedHigh(long signedHigh, long a, long b) {
+        // the signed product differs from the unsigned one by the other factor
+        // for every negative factor
+        return signedHigh + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+
+    /**
+     * Returns the most significant 64 bits of the signed 128-bit product
+     * without the intrinsic.
+     *
+     * @param a Multiplicand.
+     * @param b Multiplier.
+     * @return Most significant half of a * b.
+     */
+    private static long portableMultiplyHigh(long a, long b) {
+        // schoolbook multiplication of unsigned 32-bit halves
+        long aLow = a & 0xFFFFFFFFL;
+        long aHigh = a >>> 32;
+        long bLow = b & 0xFFFFFFFFL;
+        long bHigh = b >>> 32;
+
+        long lowLow = aLow * bLow;
+        long middle = aHigh * bLow + (lowLow >>> 32);
+        long middle2 = aLow * bHigh + (middle & 0xFFFFFFFFL);
+        long unsignedHigh = aHigh * bHigh + (middle >>> 32) + (middle2 >>> 32);
+
+        return unsignedHigh - ((a >> 63) & b) - ((b >> 63) & a);
+    }
+}
@@ -1,7 +1,7 @@
 package pl.kryptografia.rabin.calculation;
 
-import java.util.Stack;
 import pl.kryptografia.rabin.bignum.BigNum;
+import pl.kryptografia.rabin.bignum.BigNumPool;
 
 public class EuclideanSolver {
 
@@ -11,70 +11,176 @@ public class EuclideanSolver {
     private EuclideanSolver() {
     }
 
+    /**
+     * Calculates inverse of x modulo given number.
+     * 
+     * Numbers should be coprime.
+     * 
+     * @param x Number to find the inverse of.
+     * @param modulus Modulus.
+     * @return x^(-1) mod modulus
+     */
+    public BigNum inverseModulo(BigNum x, BigNum modulus) {
+        // binary inversion needs an odd modulus
+        if (!isEven(modulus)) {
+            return oddInverseModulo(x, modulus);
+        }
+
+        if (isEven(x)) {
+            throw new ArithmeticException("Numbers are not coprime");
+        }
+
+        // x is odd so we can invert the modulus modulo x instead:
+        // modulus * y = 1 + x * z for y = modulus^(-1) mod x and some
+        // 0 <= z < modulus, so x * (modulus - z) = 1 mod modulus
+        BigNum reduced = new BigNum(x);
+        reduced.modulo(modulus);
+        if (reduced.bitLength() == 1) {
+            return reduced;
+        }
+
+        BigNum z = oddInverseModulo(modulus, reduced);
+        z.multiply(modulus);
+        z.subtract(BigNum.ONE);
+        z.divide(reduced);
+
+        BigNum result = new BigNum(modulus);
+        result.setSign(1);
+        result.absSubtract(z);
+        return result;
+    }
+
     /**
      * For given relatively prime big numbers a and b returns a pair (s, t) such
      * that sa + tb = 1.
      *
+     * s is the inverse of a modulo b and t = (1 - sa) / b, so there is no
+     * back substitution (and no stack of partial results).
+     *
      * @param A A big number relatively prime to b.
      * @param B A big number relatively prime to a.
      * @return The solution (s, t) of diofantic equation sa + tb = 1.
      */
     public Pair solve(BigNum A, BigNum B) {
-        // get copies not to modify original parameters
-        BigNum a = new BigNum(A);
-        BigNum b = new BigNum(B);
-
-        // if a or b is equal to 1 the solution is trivial
-        if (A.equals(BigNum.ONE)) {
-            return new Pair(new BigNum(BigNum.ONE), new BigNum(BigNum.ZERO));
-        } else if (B.equals(BigNum.ONE)) {
-            return new Pair(new BigNum(BigNum.ZERO), new BigNum(BigNum.ONE));
-        }
+        BigNum s = inverseModulo(A, B);
 
-        // we put consecutive partial results of Euclidean algorithm onto the 
-        // stack
-        Stack<Pair> stack = new Stack<>();
+        BigNum t = new BigNum(s);
+        t.multiply(A);
+        t.setSign(-t.getSign());
+        t.add(BigNum.ONE);
+        t.divide(B);
 
-        // quotient
-        BigNum x;
-        // remainder
-        BigNum r;
+        return new Pair(s, t);
+    }
 
-        do {
-            x = new BigNum(a);
-            x.divide(b);
+    /**
+     * Calculates inverse of x modulo given odd number using binary extended
+     * Euclidean algorithm.
+     *
+     * Numbers u and v start as x and the modulus, they are halved while they
+     * are even and the lesser one is subtracted from the greater one until
+     * one of them is equal to 1. Coefficients c such that c * x = u (or v)
+     * modulo the modulus follow these operations (halving modulo an odd number
+     * adds the modulus to odd coefficients first), so only shifts, additions
+     * and subtractions are needed and all numbers stay non-negative.
+     *
+     * @param x Number to find the inverse of.
+     * @param modulus Odd modulus.
+     * @return x^(-1) mod modulus
+     */
+    private BigNum oddInverseModulo(BigNum x, BigNum modulus) {
+        BigNumPool pool = BigNumPool.getInstance();
+        pool.open();
 
-            r = new BigNum(a);
-            r.modulo(b);
+        // get copies not to modify original parameters
+        BigNum m = pool.get();
+        m.initializeFromBigNum(modulus);
+        m.setSign(1);
+
+        BigNum u = pool.get();
+        u.initializeFromBigNum(x);
+        u.modulo(m);
+        BigNum uCoefficient = pool.get();
+        uCoefficient.initializeFromBigNum(BigNum.ONE);
+
+        BigNum v = pool.get();
+        v.initializeFromBigNum(m);
+        BigNum vCoefficient = pool.get();
+        vCoefficient.initializeFromBigNum(BigNum.ZERO);
+
+        // a number with bit length 1 is equal to 1
+        while (u.bitLength() != 1 && v.bitLength() != 1) {
+            // u reaches 0 only if u = v = gcd(x, modulus) > 1
+            if (u.bitLength() == 0) {
+                pool.close();
+                throw new ArithmeticException("Numbers are not coprime");
+            }
 
-            if (r.absGreaterThan(BigNum.ONE)) {
-                // a and x are going to be modified so it is crucial to put
-                // their copies onto the stack
-                stack.push(new Pair(new BigNum(a), new BigNum(x)));
+            halve(u, uCoefficient, m);
+            halve(v, vCoefficient, m);
 
-                a = new BigNum(b);
-                b = new BigNum(r);
+            // both u and v are odd now so the difference is even
+            if (u.absGreaterOrEqualTo(v)) {
+                u.absSubtract(v);
+                subtractModulo(uCoefficient, vCoefficient, m);
+            } else {
+                v.absSubtract(u);
+                subtractModulo(vCoefficient, uCoefficient, m);
             }
-        } while (r.absGreaterThan(BigNum.ONE));
-
-        BigNum w = new BigNum(BigNum.ONE);
+        }
 
-        while (!stack.isEmpty()) {
-            BigNum s = stack.peek().second;
-            stack.pop();
+        BigNum result = new BigNum(u.bitLength() == 1 ? uCoefficient : vCoefficient);
 
-            BigNum temp = new BigNum(w);
+        pool.close();
 
-            x.setSign(-x.getSign());
+        return result;
+    }
 
-            w = new BigNum(x);
+    /**
+     * Removes all factors of two from x and divides its coefficient by the
+     * same power of two modulo given odd number.
+     *
+     * @param x Non-zero number to halve.
+     * @param coefficient Coefficient from the range [0, modulus - 1].
+     * @param modulus Odd modulus.
+     */
+    private void halve(BigNum x, BigNum coefficient, BigNum modulus) {
+        int zeros = x.numberOfTrailingZeros();
+        x.shiftRight(zeros);
+
+        for (int i = 0; i < zeros; ++i) {
+            // c / 2 = (c + modulus) / 2 modulo the modulus and one of these
+            // numerators is even
+            if (!isEven(coefficient)) {
+                coefficient.add(modulus);
+            }
+            coefficient.shiftRight(1);
+        }
+    }
 
-            x.multiply(s);
-            x.subtract(temp);
+    /**
+     * Subtracts b from a modulo given number.
+     *
+     * @param a Number from the range [0, modulus - 1] (replaced with the
+     * difference).
+     * @param b Number from the range [0, modulus - 1].
+     * @param modulus Modulus.
+     */
+    private void subtractModulo(BigNum a, BigNum b, BigNum modulus) {
+        if (!a.absGreaterOrEqualTo(b)) {
+            a.add(modulus);
         }
+        a.absSubtract(b);
+    }
 
-        x.setSign(-x.getSign());
-        return new Pair(w, x);
+    /**
+     * Checks if given number is even.
+     *
+     * @param x Number to check.
+     * @return True if and only if the least significant bit of x is 0.
+     */
+    private static boolean isEven(BigNum x) {
+        return x.getBit(BigNum.BITS - 1) == 0;
     }
 
     public static EuclideanSolver getInstance() {
@@ -1,6 +1,7 @@
 package pl.kryptografia.rabin.calculation;
 
 import pl.kryptografia.rabin.bignum.BigNum;
+import pl.kryptografia.rabin.bignum.MontgomeryContext;
 
 public class PrimeGenerator {
 
@@ -68,20 +69,17 @@ public class PrimeGenerator {
         BigNum xMinusOne = new BigNum(d);
 
         // make d * 2^s = x - 1 (find maximum s)
-        int s = 0;
-        while (d.getBit(BigNum.BITS - 1) == 0) {
-            d.shiftRight(1);
-            ++s;
-        }
+        int s = d.numberOfTrailingZeros();
+        d.shiftRight(s);
 
         // we get random numbers by randomizing some blocks (half of the blocks
         // - see method description)
         // however x can have leading zeros so we count it not to put ones 
         // there in our random numbers because they need to be less than x
-        int xZeroBits = 0;
-        while (x.getBit(BigNum.BITS / 2 + xZeroBits) == 0) {
-            ++xZeroBits;
-        }
+        int xZeroBits = BigNum.BITS / 2 - x.bitLength();
+
+        // every exponentiation is performed modulo x
+        MontgomeryContext context = new MontgomeryContext(x);
 
         for (int iteration = 0; iteration < accuracy; ++iteration) {
             // get random a from the range [1, x - 1]
@@ -95,14 +93,14 @@ public class PrimeGenerator {
             } while (a.absGreaterOrEqualTo(x) || a.equals(BigNum.ZERO));
             // now we have a from the range [1, x - 1]
 
-            a.powerModulo(d, x);
+            a.powerModulo(d, context);
             if (!a.equals(BigNum.ONE)) {
                 boolean ok = true;
                 for (int r = 0; r < s && ok; ++r) {
                     if (a.equals(xMinusOne)) {
                         ok = false;
                     } else {
-                        a.multiply(a);
+                        a.square();
                         a.modulo(x);
                     }
                 }
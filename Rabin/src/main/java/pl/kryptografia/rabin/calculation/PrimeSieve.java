@@ -3,6 +3,7 @@ package pl.kryptografia.rabin.calculation;
 import java.util.ArrayList;
 import java.util.List;
 import pl.kryptografia.rabin.bignum.BigNum;
+import pl.kryptografia.rabin.bignum.BigNumContext;
 import pl.kryptografia.rabin.bignum.BigNumPool;
 
 /**
@@ -15,11 +16,6 @@ public class PrimeSieve {
      * Prime numbers generator and checker.
      */
     private final static PrimeGenerator primeGenerator = PrimeGenerator.getInstance();
-
-    /**
-     * Pool used for creating temporary big integers.
-     */
-    private final static BigNumPool pool = BigNumPool.getInstance();
     
     /**
      * Maximum prime to be generated by Eratostenes sieve.
@@ -33,6 +29,27 @@ public class PrimeSieve {
     private PrimeSieve() {
     }
 
+    /**
+     * Generates two primes whose product has given width.
+     *
+     * Both primes have half of the width with the most significant bit set
+     * and are congruent to 3 modulo 4.
+     *
+     * @param context Width of the product of the primes.
+     * @return A pair of big prime numbers.
+     */
+    public Pair generateTwoPrimes(BigNumContext context) {
+        int primeBlocks = context.getBlocks() / 2;
+
+        BigNum maximum = new BigNum();
+        maximum.randomize(primeBlocks);
+        maximum.setBit(BigNum.BITS - primeBlocks * BigNum.BLOCK_SIZE, 1);
+        maximum.setBit(BigNum.BITS - 2, 1);
+        maximum.setBit(BigNum.BITS - 1, 1);
+
+        return generateTwoPrimes(maximum);
+    }
+
     /**
      * Generates two prime number which are not greater than given odd number
      * and give the same remainder modulo 4.
@@ -44,6 +61,7 @@ public class PrimeSieve {
     public Pair generateTwoPrimes(BigNum maximum) {
         long startTime = System.nanoTime();
         
+        BigNumPool pool = BigNumPool.getInstance();
         pool.open();
         
         // how many primes we already generated
@@ -0,0 +1,605 @@
+package pl.kryptografia.rabin.cipher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.apache.commons.io.IOUtils;
+import pl.kryptografia.rabin.bignum.BarrettReducer;
+import pl.kryptografia.rabin.bignum.BigNum;
+import pl.kryptografia.rabin.bignum.BigNumContext;
+import pl.kryptografia.rabin.bignum.MontgomeryContext;
+import pl.kryptografia.rabin.calculation.EuclideanSolver;
+import pl.kryptografia.rabin.calculation.Pair;
+import pl.kryptografia.rabin.calculation.PrimeSieve;
+import pl.kryptografia.rabin.input.BigNumsToBytesConverter;
+import pl.kryptografia.rabin.input.BytesToBigNumsConverter;
+
+/**
+ * Rabin cryptosystem with a prepared private key.
+ *
+ * Plain text is split into chunks (each with a hash of its data) which are
+ * squared modulo the public key n = p * q. Decryption computes square roots
+ * modulo p and q and combines them with the Chinese remainder theorem, the
+ * hash tells which one of the 4 square roots modulo n is the plain text.
+ * Everything what depends only on the key (exponents, CRT coefficients,
+ * Montgomery and Barrett contexts) is computed once when the key is loaded.
+ *
+ * Cipher text consists of the encrypted chunks (each as wide as the public
+ * key) followed by a trailer: 4 bytes with the number of zeros padded to the
+ * last chunk, so it can be decrypted without any other information. Streams
+ * are encrypted and decrypted in batches of chunks with constant memory.
+ *
+ * Chunks are independent so they are encrypted and decrypted in parallel by a
+ * pool of worker threads shared by all ciphers with the same number of
+ * threads (the workers are daemon threads which terminate when they are idle,
+ * so ciphers need not be closed). The number of threads is given when the
+ * cipher is created, by default it is the value of the system
+ * property pl.kryptografia.rabin.cipher.RabinCipher.parallelism or the number
+ * of available processors. Parallelism 1 processes all chunks in the calling
+ * thread.
+ *
+ * The cipher does not change after construction and can be shared between
+ * threads.
+ */
+public class RabinCipher {
+
+    /**
+     * Number of bytes of the trailer.
+     */
+    public final static int TRAILER_BYTES = 4;
+
+    /**
+     * Default number of threads which process chunks.
+     */
+    public final static int DEFAULT_PARALLELISM = Math.max(1, Integer.getInteger(
+            RabinCipher.class.getName() + ".parallelism", Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Number of batches of chunks per thread (more batches balance the load
+     * better, fewer batches have smaller overhead).
+     */
+    private final static int BATCHES_PER_THREAD = 4;
+
+    /**
+     * Number of chunks per thread read at once from a stream.
+     */
+    private final static int STREAM_BATCH_CHUNKS_PER_THREAD = 64;
+
+    /**
+     * Worker pools shared by all ciphers (keyed by the number of threads).
+     */
+    private final static Map<Integer, ForkJoinPool> SHARED_WORKERS = new HashMap<>();
+
+    /**
+     * Width of the public key.
+     */
+    private final BigNumContext context;
+
+    private final BarrettReducer publicKeyReducer;
+
+    /**
+     * Square roots are calculated by exponentiation modulo p and q.
+     */
+    private final MontgomeryContext pContext;
+
+    private final MontgomeryContext qContext;
+
+    /**
+     * (p + 1) / 4
+     */
+    private final BigNum exponentP;
+
+    /**
+     * (q + 1) / 4
+     */
+    private final BigNum exponentQ;
+
+    /**
+     * yP * p mod n where yP * p + yQ * q = 1 (it is 0 modulo p and 1 modulo
+     * q).
+     */
+    private final BigNum pCoefficient;
+
+    /**
+     * yQ * q mod n (it is 1 modulo p and 0 modulo q).
+     */
+    private final BigNum qCoefficient;
+
+    /**
+     * Number of threads which process chunks.
+     */
+    private final int parallelism;
+
+    /**
+     * Shared worker threads (null if chunks are processed in the calling
+     * thread).
+     */
+    private final ForkJoinPool workers;
+
+    /**
+     * Creates a cipher with a new key of given width.
+     *
+     * @param context Width of the public key.
+     */
+    public RabinCipher(BigNumContext context) {
+        this(context, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Creates a cipher with a new key of given width which processes chunks
+     * with given number of threads.
+     *
+     * @param context Width of the public key.
+     * @param parallelism Number of threads (at least 1).
+     */
+    public RabinCipher(BigNumContext context, int parallelism) {
+        this(PrimeSieve.getInstance().generateTwoPrimes(context), context, parallelism);
+    }
+
+    private RabinCipher(Pair privateKey, BigNumContext context, int parallelism) {
+        this(privateKey.first, privateKey.second, context, parallelism);
+    }
+
+    /**
+     * Creates a cipher with given private key.
+     *
+     * @param p First prime congruent to 3 modulo 4.
+     * @param q Second prime congruent to 3 modulo 4.
+     * @param context Width of the public key (the product of the primes has to
+     * fill its most significant block).
+     */
+    public RabinCipher(BigNum p, BigNum q, BigNumContext context) {
+        this(p, q, context, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Creates a cipher with given private key which processes chunks with
+     * given number of threads.
+     *
+     * @param p First prime congruent to 3 modulo 4.
+     * @param q Second prime congruent to 3 modulo 4.
+     * @param context Width of the public key (the product of the primes has to
+     * fill its most significant block).
+     * @param parallelism Number of threads (at least 1).
+     */
+    public RabinCipher(BigNum p, BigNum q, BigNumContext context, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism has to be positive");
+        }
+        if ((p.getBlock(BigNum.BLOCKS - 1) & 3) != 3 || (q.getBlock(BigNum.BLOCKS - 1) & 3) != 3) {
+            throw new IllegalArgumentException("Rabin primes have to be congruent to 3 modulo 4");
+        }
+
+        this.context = context;
+        this.parallelism = parallelism;
+        workers = parallelism > 1 ? sharedWorkers(parallelism) : null;
+
+        // the public key is a product of p and q
+        BigNum publicKey = new BigNum(p);
+        publicKey.multiply(q);
+
+        // every chunk is one block narrower than the public key
+        int publicKeyBits = publicKey.bitLength();
+        if (publicKeyBits > context.getBits() || publicKeyBits <= context.getBits() - BigNum.BLOCK_SIZE) {
+            throw new IllegalArgumentException("Public key has to fill the most significant block of the width");
+        }
+
+        publicKeyReducer = new BarrettReducer(publicKey);
+        pContext = new MontgomeryContext(p);
+        qContext = new MontgomeryContext(q);
+
+        exponentP = new BigNum(p);
+        exponentP.add(BigNum.ONE);
+        exponentP.shiftRight(2);
+
+        exponentQ = new BigNum(q);
+        exponentQ.add(BigNum.ONE);
+        exponentQ.shiftRight(2);
+
+        // extended Euclidean algorithm
+        // we search for yP and yQ such that:
+        // yP * p + yQ * q = 1
+        Pair solution = EuclideanSolver.getInstance().solve(p, q);
+
+        pCoefficient = solution.first;
+        publicKeyReducer.reduce(pCoefficient);
+        pCoefficient.multiply(p);
+        publicKeyReducer.reduce(pCoefficient);
+
+        qCoefficient = solution.second;
+        publicKeyReducer.reduce(qCoefficient);
+        qCoefficient.multiply(q);
+        publicKeyReducer.reduce(qCoefficient);
+    }
+
+    /**
+     * Encrypts given plain text.
+     *
+     * @param plainText Bytes to encrypt.
+     * @return Cipher text with the trailer.
+     */
+    public byte[] encrypt(byte[] plainText) {
+        BytesToBigNumsConverter converter = new BytesToBigNumsConverter(plainText, context);
+        byte[] encryptedChunks = encryptChunks(converter);
+
+        byte[] cipherText = Arrays.copyOf(encryptedChunks, encryptedChunks.length + TRAILER_BYTES);
+        writeTrailer(converter.getPaddedBytes(), cipherText, encryptedChunks.length);
+        return cipherText;
+    }
+
+    /**
+     * Decrypts given cipher text.
+     *
+     * @param cipherText Cipher text with the trailer.
+     * @return Decrypted plain text.
+     */
+    public byte[] decrypt(byte[] cipherText) {
+        int chunkBytes = context.getBytes();
+        int encryptedBytes = cipherText.length - TRAILER_BYTES;
+        if (encryptedBytes < 0 || encryptedBytes % chunkBytes != 0) {
+            throw new IllegalArgumentException("Cipher text has invalid length");
+        }
+
+        int chunks = encryptedBytes / chunkBytes;
+        return decryptChunks(cipherText, chunks, readTrailer(cipherText, encryptedBytes, chunks));
+    }
+
+    /**
+     * Encrypts given stream.
+     *
+     * The plain text is read in batches of chunks and every batch is written
+     * as soon as it is encrypted, so the memory used does not depend on the
+     * length of the stream. The trailer is written when the input ends. The
+     * streams are not closed.
+     *
+     * @param input Plain text.
+     * @param output Stream to which the cipher text is written.
+     * @throws IOException If reading or writing fails.
+     */
+    public void encrypt(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = new byte[getStreamBatchChunks() * BytesToBigNumsConverter.bytesPerChunk(context)];
+        int paddedBytes = 0;
+
+        int read;
+        do {
+            read = IOUtils.read(input, buffer);
+            if (read == 0) {
+                break;
+            }
+
+            // only the last batch can be shorter and have padding
+            BytesToBigNumsConverter converter = new BytesToBigNumsConverter(
+                    read == buffer.length ? buffer : Arrays.copyOf(buffer, read), context);
+            output.write(encryptChunks(converter));
+            paddedBytes = converter.getPaddedBytes();
+        } while (read == buffer.length);
+
+        byte[] trailer = new byte[TRAILER_BYTES];
+        writeTrailer(paddedBytes, trailer, 0);
+        output.write(trailer);
+    }
+
+    /**
+     * Decrypts given stream.
+     *
+     * The cipher text is read in batches of chunks and every batch is written
+     * as soon as it is decrypted, so the memory used does not depend on the
+     * length of the stream. The last chunk and the trailer are held back until
+     * the input ends because the padding of the last chunk is known only from
+     * the trailer. The streams are not closed.
+     *
+     * @param input Cipher text with the trailer.
+     * @param output Stream to which the plain text is written.
+     * @throws IOException If reading or writing fails.
+     */
+    public void decrypt(InputStream input, OutputStream output) throws IOException {
+        int chunkBytes = context.getBytes();
+        int batchChunks = getStreamBatchChunks();
+        int heldBackBytes = chunkBytes + TRAILER_BYTES;
+        byte[] buffer = new byte[batchChunks * chunkBytes + heldBackBytes];
+
+        int filled = 0;
+        while (true) {
+            filled += IOUtils.read(input, buffer, filled, buffer.length - filled);
+            if (filled < buffer.length) {
+                break;
+            }
+
+            // there may be more chunks so the last chunk in the buffer could
+            // be the last one of the cipher text
+            output.write(decryptChunks(buffer, batchChunks, 0));
+            System.arraycopy(buffer, batchChunks * chunkBytes, buffer, 0, heldBackBytes);
+            filled = heldBackBytes;
+        }
+
+        int encryptedBytes = filled - TRAILER_BYTES;
+        if (encryptedBytes < 0 || encryptedBytes % chunkBytes != 0) {
+            throw new IllegalArgumentException("Cipher text has invalid length");
+        }
+
+        int chunks = encryptedBytes / chunkBytes;
+        output.write(decryptChunks(buffer, chunks, readTrailer(buffer, encryptedBytes, chunks)));
+    }
+
+    /**
+     * Returns the worker pool with given number of threads, it is created
+     * when it is needed for the first time.
+     *
+     * @param parallelism Number of threads.
+     * @return Pool shared by all ciphers with given parallelism.
+     */
+    private static synchronized ForkJoinPool sharedWorkers(int parallelism) {
+        ForkJoinPool pool = SHARED_WORKERS.get(parallelism);
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+            SHARED_WORKERS.put(parallelism, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the number of chunks read at once from a stream.
+     *
+     * @return Number of chunks in a batch.
+     */
+    private int getStreamBatchChunks() {
+        return STREAM_BATCH_CHUNKS_PER_THREAD * parallelism;
+    }
+
+    /**
+     * Encrypts all chunks of given plain text.
+     *
+     * @param converter Converter of the plain text.
+     * @return Encrypted chunks (without the trailer).
+     */
+    private byte[] encryptChunks(BytesToBigNumsConverter converter) {
+        final BigNum[] chunks = converter.convert();
+
+        processChunks(chunks.length, new ChunkOperation() {
+
+            @Override
+            public void process(int chunk) {
+                encryptChunk(chunks[chunk]);
+            }
+        });
+
+        return BigNumsToBytesConverter.bigNumArrayToBytes(chunks, context);
+    }
+
+    /**
+     * Decrypts chunks from the beginning of given cipher text.
+     *
+     * @param cipherText Cipher text.
+     * @param chunks Number of chunks to decrypt.
+     * @param paddedBytes Number of zeros padded to the last of the chunks.
+     * @return Plain text of the chunks.
+     */
+    private byte[] decryptChunks(byte[] cipherText, final int chunks, final int paddedBytes) {
+        final BigNum[] encryptedChunks = BytesToBigNumsConverter.convertCipherTextToBigNum(cipherText, chunks, context);
+
+        final int plainTextChunkBytes = BytesToBigNumsConverter.bytesPerChunk(context);
+        final byte[] plainText = new byte[chunks * plainTextChunkBytes - paddedBytes];
+        processChunks(chunks, new ChunkOperation() {
+
+            @Override
+            public void process(int chunk) {
+                BigNum decryptedChunk = decryptChunk(encryptedChunks[chunk]);
+                byte[] chunkBytesWithoutPadding = BigNumsToBytesConverter.convertChunk(decryptedChunk,
+                        chunk == chunks - 1 ? paddedBytes : 0, context);
+
+                // every chunk has its own place in the plain text so the order
+                // of processing does not matter
+                System.arraycopy(chunkBytesWithoutPadding, 0, plainText, chunk * plainTextChunkBytes,
+                        chunkBytesWithoutPadding.length);
+            }
+        });
+
+        return plainText;
+    }
+
+    /**
+     * Processes chunks with given numbers, in parallel if the cipher has
+     * worker threads.
+     *
+     * @param chunks Number of chunks.
+     * @param operation Operation performed on every chunk.
+     */
+    private void processChunks(int chunks, ChunkOperation operation) {
+        if (workers == null || chunks < 2) {
+            for (int i = 0; i < chunks; ++i) {
+                operation.process(i);
+            }
+            return;
+        }
+
+        int batchSize = Math.max(1, chunks / (BATCHES_PER_THREAD * parallelism));
+        workers.invoke(new ChunkTask(operation, 0, chunks, batchSize));
+    }
+
+    /**
+     * Encrypts a chunk of plain text in place.
+     *
+     * @param chunk Chunk with its hash (replaced with the encrypted chunk).
+     */
+    private void encryptChunk(BigNum chunk) {
+        chunk.square();
+        publicKeyReducer.reduce(chunk);
+    }
+
+    /**
+     * Decrypts a chunk of cipher text.
+     *
+     * @param encryptedChunk Encrypted chunk.
+     * @return Chunk of plain text with its hash.
+     */
+    private BigNum decryptChunk(BigNum encryptedChunk) {
+        BigNum squareP = new BigNum(encryptedChunk);
+        squareP.powerModulo(exponentP, pContext);
+
+        BigNum squareQ = new BigNum(encryptedChunk);
+        squareQ.powerModulo(exponentQ, qContext);
+
+        // roots modulo n are +-tempP +-tempQ
+        BigNum tempP = squareQ;
+        tempP.multiply(pCoefficient);
+        publicKeyReducer.reduce(tempP);
+
+        BigNum tempQ = squareP;
+        tempQ.multiply(qCoefficient);
+        publicKeyReducer.reduce(tempQ);
+
+        return checkPossibleTexts(tempP, tempQ);
+    }
+
+    /**
+     * Checks which one of 4 possible results of decryption is the correct one.
+     *
+     * @param tempP Coefficient of P to possible solutions.
+     * @param tempQ Coefficient of Q to possible solutions.
+     * @return Correct decrypted chunk of data.
+     */
+    private BigNum checkPossibleTexts(BigNum tempP, BigNum tempQ) {
+        BigNum publicKey = publicKeyReducer.getModulus();
+
+        // there are 4 possible solutions of decryption
+        BigNum[] possibleText = new BigNum[4];
+
+        possibleText[0] = new BigNum(tempP);
+        possibleText[0].add(tempQ);
+        publicKeyReducer.reduce(possibleText[0]);
+
+        possibleText[1] = new BigNum(publicKey);
+        possibleText[1].subtract(possibleText[0]);
+
+        possibleText[2] = new BigNum(tempP);
+        possibleText[2].subtract(tempQ);
+        publicKeyReducer.reduce(possibleText[2]);
+
+        possibleText[3] = new BigNum(publicKey);
+        possibleText[3].subtract(possibleText[2]);
+
+        for (int i = 0; i < 4; ++i) {
+            long hash = BytesToBigNumsConverter.calculateHash(possibleText[i], context);
+            long firstHashBlock = hash >>> BigNum.BLOCK_SIZE;
+            long secondHashBlock = (hash << BigNum.BLOCK_SIZE) >>> BigNum.BLOCK_SIZE;
+
+            if (possibleText[i].getBlock(BigNum.BLOCKS - 2) == firstHashBlock
+                    && possibleText[i].getBlock(BigNum.BLOCKS - 1) == secondHashBlock) {
+                return possibleText[i];
+            }
+        }
+
+        throw new IllegalArgumentException("Cipher text was not encrypted with this key");
+    }
+
+    /**
+     * Writes the trailer (number of zeros padded to the last chunk).
+     *
+     * @param paddedBytes Number of padded bytes.
+     * @param cipherText Cipher text.
+     * @param offset Position of the trailer.
+     */
+    private static void writeTrailer(int paddedBytes, byte[] cipherText, int offset) {
+        System.arraycopy(BigNumsToBytesConverter.longToBytes(paddedBytes), 0, cipherText, offset, TRAILER_BYTES);
+    }
+
+    /**
+     * Reads and validates the trailer.
+     *
+     * @param cipherText Cipher text.
+     * @param offset Position of the trailer.
+     * @param chunks Number of encrypted chunks.
+     * @return Number of zeros padded to the last chunk.
+     */
+    private int readTrailer(byte[] cipherText, int offset, int chunks) {
+        int paddedBytes = 0;
+        for (int i = 0; i < TRAILER_BYTES; ++i) {
+            paddedBytes = (paddedBytes << 8) | (cipherText[offset + i] & 0xFF);
+        }
+
+        if (paddedBytes < 0 || paddedBytes >= BytesToBigNumsConverter.bytesPerChunk(context)
+                || (chunks == 0 && paddedBytes != 0)) {
+            throw new IllegalArgumentException("Cipher text has invalid trailer");
+        }
+
+        return paddedBytes;
+    }
+
+    /**
+     * Returns the public key.
+     *
+     * @return Product of the primes.
+     */
+    public BigNum getPublicKey() {
+        return new BigNum(publicKeyReducer.getModulus());
+    }
+
+    /**
+     * Returns the number of threads which process chunks.
+     *
+     * @return Parallelism of the cipher.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Returns the width of the public key.
+     *
+     * @return Width of the public key.
+     */
+    public BigNumContext getContext() {
+        return context;
+    }
+
+    /**
+     * Operation performed on a single chunk.
+     */
+    private interface ChunkOperation {
+
+        void process(int chunk);
+    }
+
+    /**
+     * Processes a range of chunks, ranges longer than the batch size are split
+     * in halves.
+     */
+    private static class ChunkTask extends RecursiveAction {
+
+        private final static long serialVersionUID = 1L;
+
+        private final ChunkOperation operation;
+
+        private final int from;
+
+        private final int to;
+
+        private final int batchSize;
+
+        ChunkTask(ChunkOperation operation, int from, int to, int batchSize) {
+            this.operation = operation;
+            this.from = from;
+            this.to = to;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= batchSize) {
+                for (int i = from; i < to; ++i) {
+                    operation.process(i);
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new ChunkTask(operation, from, middle, batchSize),
+                    new ChunkTask(operation, middle, to, batchSize));
+        }
+    }
+}
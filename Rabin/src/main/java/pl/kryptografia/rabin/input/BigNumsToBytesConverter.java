@@ -5,6 +5,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import pl.kryptografia.rabin.bignum.BigNum;
+import pl.kryptografia.rabin.bignum.BigNumContext;
 
 /**
  *
@@ -12,13 +13,22 @@ import pl.kryptografia.rabin.bignum.BigNum;
  */
 public class BigNumsToBytesConverter {
 
-    public static int paddedBytes;
-
     public static byte[] bigNumArrayToBytes(BigNum[] num) {
+        return bigNumArrayToBytes(num, BigNumContext.DEFAULT);
+    }
+
+    /**
+     * Converts big integers of given width to an array of bytes.
+     *
+     * @param num Big integers.
+     * @param context Width of the numbers.
+     * @return Converted byte array.
+     */
+    public static byte[] bigNumArrayToBytes(BigNum[] num, BigNumContext context) {
         List<byte[]> fragments = new ArrayList<>(num.length);
         
         for (int i = 0; i < num.length; ++i) {
-            for (int j = BigNum.BLOCKS / 2; j < BigNum.BLOCKS; ++j) {
+            for (int j = context.getFirstBlock(); j < BigNum.BLOCKS; ++j) {
                 fragments.add(longToBytes(num[i].getBlock(j)));
             }
         }
@@ -49,33 +59,31 @@ public class BigNumsToBytesConverter {
     }
 
     /**
-     * Converts chunk (big integer) to an array of bytes. Extracts data from big
-     * integer discarding hash bytes and padded bytes.
+     * Converts chunk (big integer) of given public key width to an array of
+     * bytes. Extracts data from big integer discarding hash bytes and given
+     * number of padded bytes.
      *
      * @param input Big integer to convertChunk.
-     * @param lastChunk Boolean flag to check if chunk is last in input.
+     * @param chunkPaddedBytes Number of zeros padded to the chunk (0 for all
+     * chunks but the last one).
+     * @param context Width of the public key.
      * @return Converted byte array of chunk data.
      */
-    public static byte[] convertChunk(BigNum input, boolean lastChunk) {
+    public static byte[] convertChunk(BigNum input, int chunkPaddedBytes, BigNumContext context) {
         List<Byte> listBytes = new ArrayList<>();
         byte[] oneBlockBytes;
-        int chunkBlocksWithHash = BytesToBigNumsConverter.BLOCKS_PER_CHUNK + BytesToBigNumsConverter.HASH_BLOCKS;
+        int chunkBlocksWithHash = BytesToBigNumsConverter.blocksPerChunk(context) + BytesToBigNumsConverter.HASH_BLOCKS;
         // whole chunk blocks padded with zeros (only possible in last chunk)
-        int actualPaddedBlocks = 0;
+        int actualPaddedBlocks = chunkPaddedBytes / BytesToBigNumsConverter.BYTES_PER_BLOCK;
         // padded bytes in last data block (only possible in last chunk)
-        int actualPaddedBytes = 0;
-
-        if (lastChunk) {
-            actualPaddedBlocks = paddedBytes / BytesToBigNumsConverter.BYTES_PER_BLOCK;
-            actualPaddedBytes = paddedBytes % BytesToBigNumsConverter.BYTES_PER_BLOCK;
-        }
+        int actualPaddedBytes = chunkPaddedBytes % BytesToBigNumsConverter.BYTES_PER_BLOCK;
 
         for (int i = BigNum.BLOCKS - chunkBlocksWithHash; i < BigNum.BLOCKS - BytesToBigNumsConverter.HASH_BLOCKS - actualPaddedBlocks; i++) {
             oneBlockBytes = longToBytes(input.getBlock(i));
             // data bytes without padded zeros
             int notPaddedDataBytesInBlock = oneBlockBytes.length;
 
-            if (lastChunk && i == BigNum.BLOCKS - BytesToBigNumsConverter.HASH_BLOCKS - actualPaddedBlocks - 1) {
+            if (i == BigNum.BLOCKS - BytesToBigNumsConverter.HASH_BLOCKS - actualPaddedBlocks - 1) {
                 notPaddedDataBytesInBlock = oneBlockBytes.length - actualPaddedBytes;
             }
 
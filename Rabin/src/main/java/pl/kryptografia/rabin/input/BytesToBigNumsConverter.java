@@ -2,6 +2,7 @@ package pl.kryptografia.rabin.input;
 
 import java.util.Arrays;
 import pl.kryptografia.rabin.bignum.BigNum;
+import pl.kryptografia.rabin.bignum.BigNumContext;
 import static pl.kryptografia.rabin.bignum.BigNum.BLOCKS;
 
 public class BytesToBigNumsConverter {
@@ -17,14 +18,19 @@ public class BytesToBigNumsConverter {
     public final static int HASH_BLOCKS = 2;
 
     /**
-     * BigNum blocks per one data chunk.
+     * BigNum blocks per one data chunk (for the default width).
      */
-    public final static int BLOCKS_PER_CHUNK = BigNum.BLOCKS / 2 - 1 - HASH_BLOCKS;
+    public final static int BLOCKS_PER_CHUNK = blocksPerChunk(BigNumContext.DEFAULT);
+
+    /**
+     * Width of the public key.
+     */
+    private final BigNumContext context;
 
     /**
      * Bytes needed to create one chunk of input data.
      */
-    private final static int BYTES_PER_CHUNK = BYTES_PER_BLOCK * BLOCKS_PER_CHUNK;
+    private final int bytesPerChunk;
 
     /**
      * Bytes to convert (padded with zeros if needed).
@@ -32,20 +38,40 @@ public class BytesToBigNumsConverter {
     private final byte[] bytes;
 
     /**
-     * Creates a converter for given input bytes.
+     * Number of zeros added to the last chunk.
+     */
+    private final int paddedBytes;
+
+    /**
+     * Creates a converter for given input bytes and the default width.
      *
      * Constructor adds trailing zeros to the input copy if needed.
      *
      * @param input Input bytes.
      */
     public BytesToBigNumsConverter(byte[] input) {
+        this(input, BigNumContext.DEFAULT);
+    }
+
+    /**
+     * Creates a converter for given input bytes and public key width.
+     *
+     * Constructor adds trailing zeros to the input copy if needed.
+     *
+     * @param input Input bytes.
+     * @param context Width of the public key.
+     */
+    public BytesToBigNumsConverter(byte[] input, BigNumContext context) {
+        this.context = context;
+        bytesPerChunk = bytesPerChunk(context);
+
         int k = input.length;
-        int newBytes = BYTES_PER_CHUNK - k % BYTES_PER_CHUNK;
+        int newBytes = bytesPerChunk - k % bytesPerChunk;
 
-        if (newBytes == BYTES_PER_CHUNK) {
+        if (newBytes == bytesPerChunk) {
             newBytes = 0;
         }
-        BigNumsToBytesConverter.paddedBytes = newBytes;
+        paddedBytes = newBytes;
 
         bytes = new byte[k + newBytes];
         for (int i = 0; i < k; ++i) {
@@ -64,8 +90,8 @@ public class BytesToBigNumsConverter {
     public BigNum[] convert() {
         int k = bytes.length;
 
-        BigNum[] result = new BigNum[k / BYTES_PER_CHUNK];
-        for (int i = 0; i < k / BYTES_PER_CHUNK; ++i) {
+        BigNum[] result = new BigNum[k / bytesPerChunk];
+        for (int i = 0; i < k / bytesPerChunk; ++i) {
             result[i] = convertToSingleBigNum(i);
             addHashToBigNum(result[i]);
         }
@@ -73,6 +99,25 @@ public class BytesToBigNumsConverter {
         return result;
     }
 
+    /**
+     * Returns the number of zeros added to the last chunk of the input.
+     *
+     * @return Number of padded bytes.
+     */
+    public int getPaddedBytes() {
+        return paddedBytes;
+    }
+
+    /**
+     * Returns the number of data bytes in one chunk.
+     *
+     * @param context Width of the public key.
+     * @return Bytes per one data chunk.
+     */
+    public static int bytesPerChunk(BigNumContext context) {
+        return BYTES_PER_BLOCK * blocksPerChunk(context);
+    }
+
     /**
      * Converts bytes to a single chunk of data.
      *
@@ -82,9 +127,9 @@ public class BytesToBigNumsConverter {
     private BigNum convertToSingleBigNum(int index) {
         BigNum result = new BigNum();
 
-        int currentByte = index * BYTES_PER_CHUNK;
+        int currentByte = index * bytesPerChunk;
 
-        for (int i = BigNum.BLOCKS - (BLOCKS_PER_CHUNK + HASH_BLOCKS); i < BigNum.BLOCKS - HASH_BLOCKS; ++i) {
+        for (int i = BigNum.BLOCKS - (blocksPerChunk(context) + HASH_BLOCKS); i < BigNum.BLOCKS - HASH_BLOCKS; ++i) {
             long block = 0;
             for (int j = 0; j < BYTES_PER_BLOCK; ++j) {
                 // 0xFF sorcery lets us treat this byte as really unsigned
@@ -100,15 +145,51 @@ public class BytesToBigNumsConverter {
     }
 
     /**
-     * Calculates hash of input blocks.
+     * Returns the number of data blocks in one chunk.
+     *
+     * A chunk has to be less than the public key so it is one block narrower
+     * and its last blocks are occupied by the hash.
+     *
+     * @param context Width of the public key.
+     * @return BigNum blocks per one data chunk.
+     */
+    public static int blocksPerChunk(BigNumContext context) {
+        return context.getBlocks() - 1 - HASH_BLOCKS;
+    }
+
+    /**
+     * Calculates hash of input blocks (for the default width).
      *
      * @param input BigNum to calculate hash.
      * @param dataSizeInBlocks Size of data to hash in blocks.
      * @return Hash of blocks.
      */
     public static long calculateHash(BigNum input, int dataSizeInBlocks) {
+        return calculateHash(input, BLOCKS - (BLOCKS_PER_CHUNK + HASH_BLOCKS), dataSizeInBlocks);
+    }
+
+    /**
+     * Calculates hash of data blocks of a chunk.
+     *
+     * @param input BigNum to calculate hash.
+     * @param context Width of the public key.
+     * @return Hash of blocks.
+     */
+    public static long calculateHash(BigNum input, BigNumContext context) {
+        int dataSizeInBlocks = blocksPerChunk(context);
+        return calculateHash(input, BLOCKS - (dataSizeInBlocks + HASH_BLOCKS), dataSizeInBlocks);
+    }
+
+    /**
+     * Calculates hash of given input blocks.
+     *
+     * @param input BigNum to calculate hash.
+     * @param startingDataBlock First block to hash.
+     * @param dataSizeInBlocks Size of data to hash in blocks.
+     * @return Hash of blocks.
+     */
+    private static long calculateHash(BigNum input, int startingDataBlock, int dataSizeInBlocks) {
         long hashCode = 0;
-        int startingDataBlock = BLOCKS - (BLOCKS_PER_CHUNK + HASH_BLOCKS);
         for (int i = 0; i < dataSizeInBlocks; i++) {
             hashCode = 31 * hashCode + (input.getBlock(startingDataBlock + i) & 0xffffffffL);
         }
@@ -126,7 +207,7 @@ public class BytesToBigNumsConverter {
      * @return BigNum with added hash at last two blocks.
      */
     private BigNum addHashToBigNum(BigNum input) {
-        long hash = calculateHash(input, BLOCKS_PER_CHUNK);
+        long hash = calculateHash(input, context);
         long firstHashBlock = hash >>> BigNum.BLOCK_SIZE;
         long secondHashBlock = (hash << BigNum.BLOCK_SIZE) >>> BigNum.BLOCK_SIZE;
 
@@ -136,8 +217,31 @@ public class BytesToBigNumsConverter {
     }
 
     public static BigNum[] convertCipherTextToBigNum(byte[] cipherText) {
-        int cipherTextCharSize = BigNum.BLOCKS * 2;
-        int numberOfChunks = cipherText.length / cipherTextCharSize;
+        return convertCipherTextToBigNum(cipherText, BigNumContext.DEFAULT);
+    }
+
+    /**
+     * Converts cipher text to big integers.
+     *
+     * @param cipherText Cipher text.
+     * @param context Width of the public key.
+     * @return Encrypted chunks.
+     */
+    public static BigNum[] convertCipherTextToBigNum(byte[] cipherText, BigNumContext context) {
+        return convertCipherTextToBigNum(cipherText, cipherText.length / context.getBytes(), context);
+    }
+
+    /**
+     * Converts given number of chunks from the beginning of cipher text to big
+     * integers.
+     *
+     * @param cipherText Cipher text.
+     * @param numberOfChunks Number of chunks to convert.
+     * @param context Width of the public key.
+     * @return Encrypted chunks.
+     */
+    public static BigNum[] convertCipherTextToBigNum(byte[] cipherText, int numberOfChunks, BigNumContext context) {
+        int cipherTextCharSize = context.getBytes();
 
         BigNum[] converted = new BigNum[numberOfChunks];
 
@@ -147,7 +251,7 @@ public class BytesToBigNumsConverter {
 
             int currentByte = index * cipherTextCharSize;
 
-            for (int i = BigNum.BLOCKS / 2; i < BigNum.BLOCKS; ++i) {
+            for (int i = context.getFirstBlock(); i < BigNum.BLOCKS; ++i) {
                 long block = 0;
                 for (int j = 0; j < BYTES_PER_BLOCK; ++j) {
                     // 0xFF sorcery lets us treat this byte as really unsigned
@@ -6,10 +6,14 @@
 package pl.kryptografia.rabin.ui;
 
 import java.awt.Cursor;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JFileChooser;
@@ -17,23 +21,14 @@ import javax.swing.JOptionPane;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import pl.kryptografia.rabin.bignum.BigNum;
-import pl.kryptografia.rabin.calculation.EuclideanSolver;
+import pl.kryptografia.rabin.bignum.BigNumContext;
 import pl.kryptografia.rabin.calculation.Pair;
 import pl.kryptografia.rabin.calculation.PrimeSieve;
-import pl.kryptografia.rabin.input.BigNumsToBytesConverter;
-import pl.kryptografia.rabin.input.BytesToBigNumsConverter;
+import pl.kryptografia.rabin.cipher.RabinCipher;
 
 public class AlgorithmGUI extends javax.swing.JFrame {
 
-    private BigNum p;
-
-    private BigNum q;
-
-    private BigNum publicKey;
-
-    private BytesToBigNumsConverter converter;
-
-    private int plainTextBytesLength;
+    private RabinCipher rabinCipher;
 
     /**
      * Creates new form AlgorithmGUI
@@ -62,8 +57,8 @@ public class AlgorithmGUI extends javax.swing.JFrame {
         PrimeSieve sieve = PrimeSieve.getInstance();
         Pair privateKey = sieve.generateTwoPrimes(initialCandidate);
 
-        p = privateKey.first;
-        q = privateKey.second;
+        BigNum p = privateKey.first;
+        BigNum q = privateKey.second;
 
 //        p = new BigNum();
 //        q = new BigNum();
@@ -83,37 +78,22 @@ public class AlgorithmGUI extends javax.swing.JFrame {
 //                q.setBit(3 * 1024 + i, 1);
 //            }
 //        }
-        // the public key is a product of p and q
-        publicKey = new BigNum(p);
-        publicKey.multiply(q);
+        // the CRT parameters of the key are computed once
+        rabinCipher = new RabinCipher(p, q, BigNumContext.DEFAULT);
         keyDialog.setVisible(false);
         setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
     }
 
     /**
-     * Pozwól użytkownikowi wybrać plik i zwróć informacje o tym pliku.
+     * Pozwól użytkownikowi wybrać plik.
      *
-     * @return Informacje o pełnej nazwie pliku oraz jego zawartości.
-     * @throws FileNotFoundException
-     * @throws IOException
+     * @return Wybrany plik lub null, jeśli użytkownik nie wybrał pliku.
      */
-    private FileContent retrieveFileContent() throws FileNotFoundException, IOException {
-        FileContent result = new FileContent();
-
+    private File chooseFile() {
         JFileChooser chooser = new JFileChooser();
         int returnVal = chooser.showOpenDialog(this);
         if (returnVal == JFileChooser.APPROVE_OPTION) {
-            File file = chooser.getSelectedFile();
-            result.setFilePath(file.getParent());
-            result.setFileName(FilenameUtils.getBaseName(file.getAbsolutePath()));
-            result.setFileExtension(FilenameUtils.getExtension(file.getAbsolutePath()));
-
-            FileInputStream fis = new FileInputStream(file);
-            byte[] binaryContent = new byte[(int) file.length()];
-            fis.read(binaryContent);
-
-            result.setBinaryConent(binaryContent);
-            return result;
+            return chooser.getSelectedFile();
         }
 
         return null;
@@ -265,17 +245,19 @@ public class AlgorithmGUI extends javax.swing.JFrame {
     }//GEN-LAST:event_jButtonEncryptTextActionPerformed
 
     private void jButtonEncryptFileActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButtonEncryptFileActionPerformed
-        FileContent fileContent;
-        try {
-            fileContent = retrieveFileContent();
-            if (fileContent == null) {
-                return;
-            }
+        File inputFile = chooseFile();
+        if (inputFile == null) {
+            return;
+        }
 
-            File outputFile = new File(fileContent.getFilePath() + "/"
-                    + fileContent.getFileName() + "_encrypted." + fileContent.getFileExtension());
+        File outputFile = new File(inputFile.getParent() + "/"
+                + FilenameUtils.getBaseName(inputFile.getAbsolutePath()) + "_encrypted."
+                + FilenameUtils.getExtension(inputFile.getAbsolutePath()));
 
-            FileUtils.writeByteArrayToFile(outputFile, cipher(fileContent.getBinaryConent()));
+        // files are encrypted chunk by chunk so they do not have to fit in memory
+        try (InputStream input = new BufferedInputStream(new FileInputStream(inputFile));
+                OutputStream output = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+            rabinCipher.encrypt(input, output);
         } catch (IOException ex) {
             Logger.getLogger(AlgorithmGUI.class.getName()).log(Level.SEVERE, null, ex);
             JOptionPane.showMessageDialog(this, "Wystąpił błąd podczas wczytywania pliku");
@@ -288,141 +270,42 @@ public class AlgorithmGUI extends javax.swing.JFrame {
     }//GEN-LAST:event_jButtonDecryptTextActionPerformed
 
     private void jButtonDecryptFileActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButtonDecryptFileActionPerformed
-        FileContent fileContent;
-        try {
-            JOptionPane.showMessageDialog(this, "Proszę wskazać plik do odszyfrowania");
-            fileContent = retrieveFileContent();
-            if (fileContent == null) {
-                return;
-            }
+        JOptionPane.showMessageDialog(this, "Proszę wskazać plik do odszyfrowania");
+        File inputFile = chooseFile();
+        if (inputFile == null) {
+            return;
+        }
 
-            File outputFile = new File(fileContent.getFilePath() + "/"
-                    + fileContent.getFileName().replace("_encrypted", "_decrypted.") + fileContent.getFileExtension());
+        File outputFile = new File(inputFile.getParent() + "/"
+                + FilenameUtils.getBaseName(inputFile.getAbsolutePath()).replace("_encrypted", "_decrypted.")
+                + FilenameUtils.getExtension(inputFile.getAbsolutePath()));
 
-            FileUtils.writeByteArrayToFile(outputFile, decrypt(fileContent.getBinaryConent()));
-            JOptionPane.showMessageDialog(this, "Plik po deszyfracji: " + outputFile.getAbsolutePath());
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        try (InputStream input = new BufferedInputStream(new FileInputStream(inputFile));
+                OutputStream output = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+            rabinCipher.decrypt(input, output);
         } catch (IOException ex) {
             Logger.getLogger(AlgorithmGUI.class.getName()).log(Level.SEVERE, null, ex);
             JOptionPane.showMessageDialog(this, "Wystąpił błąd podczas wczytywania pliku");
+            return;
+        } finally {
+            setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
         }
+
+        JOptionPane.showMessageDialog(this, "Plik po deszyfracji: " + outputFile.getAbsolutePath());
     }//GEN-LAST:event_jButtonDecryptFileActionPerformed
 
     private byte[] cipher(byte[] bytesToEncrypt) {
-        plainTextBytesLength = bytesToEncrypt.length;
-        converter = new BytesToBigNumsConverter(bytesToEncrypt);
-        BigNum[] plainText = converter.convert();
-
-        // Encrypt plain text
-        BigNum[] cipherText = new BigNum[plainText.length];
-        for (int i = 0; i < plainText.length; ++i) {
-            cipherText[i] = new BigNum(plainText[i]);
-            cipherText[i].multiply(cipherText[i]);
-            cipherText[i].modulo(publicKey);
-        }
-
-        return BigNumsToBytesConverter.bigNumArrayToBytes(cipherText);
+        return rabinCipher.encrypt(bytesToEncrypt);
     }
 
     private byte[] decrypt(byte[] toDecrypt) {
         setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-        BigNum[] cipherText = BytesToBigNumsConverter.convertCipherTextToBigNum(toDecrypt);
-
-        // Decrypt ciphertext
-        BigNum exponentP = new BigNum(p);
-        exponentP.add(BigNum.ONE);
-        exponentP.shiftRight(2);
-
-        BigNum exponentQ = new BigNum(q);
-        exponentQ.add(BigNum.ONE);
-        exponentQ.shiftRight(2);
-
-        // extended Euclidean algorithm
-        // we search for yP and yQ such that:
-        // yP * p + yQ * q = 1
-        Pair solution = EuclideanSolver.getInstance().solve(p, q);
-        BigNum yP = solution.first;
-        BigNum yQ = solution.second;
-
-        // we calculate the remainder modulo public key because yP and yQ are
-        // used only as a factor in equations calculated modulo public key
-        // that way we make sure that all partial result will not overflow
-        yP.modulo(publicKey);
-        yQ.modulo(publicKey);
-
-        BigNum[] decryptedText = new BigNum[cipherText.length];
-        byte[] decryptedChunkBytes;
-        byte[] decryptedBytes = new byte[plainTextBytesLength];
-        int counter = 0;
-        int bytesCounter = 0;
-
-        for (BigNum encryptedCharacter : cipherText) {
-            BigNum squareP = new BigNum(encryptedCharacter);
-            squareP.powerModulo(exponentP, p);
-
-            BigNum squareQ = new BigNum(encryptedCharacter);
-            squareQ.powerModulo(exponentQ, q);
-
-            BigNum tempP = new BigNum(p);
-            tempP.multiply(squareQ);
-            tempP.modulo(publicKey);
-            tempP.multiply(yP);
-            tempP.modulo(publicKey);
-
-            BigNum tempQ = new BigNum(q);
-            tempQ.multiply(squareP);
-            tempQ.modulo(publicKey);
-            tempQ.multiply(yQ);
-            tempQ.modulo(publicKey);
-
-            decryptedText[counter++] = checkPossibleTexts(publicKey, tempP, tempQ);
-
-            boolean lastChunk = false;
-            if (counter - 1 == cipherText.length - 1) {
-                lastChunk = true;
-            }
-
-            decryptedChunkBytes = BigNumsToBytesConverter.convertChunk(decryptedText[counter - 1], lastChunk);
-            for (int i = 0; i < decryptedChunkBytes.length; i++) {
-                decryptedBytes[bytesCounter++] = decryptedChunkBytes[i];
-            }
-        }
-
+        byte[] decryptedBytes = rabinCipher.decrypt(toDecrypt);
         setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
         return decryptedBytes;
     }
 
-    private BigNum checkPossibleTexts(BigNum publicKey, BigNum tempP, BigNum tempQ) {
-        // there are 4 possible solutions of decryption
-        BigNum[] possibleText = new BigNum[4];
-
-        possibleText[0] = new BigNum(tempP);
-        possibleText[0].add(tempQ);
-        possibleText[0].modulo(publicKey);
-
-        possibleText[1] = new BigNum(publicKey);
-        possibleText[1].subtract(possibleText[0]);
-
-        possibleText[2] = new BigNum(tempP);
-        possibleText[2].subtract(tempQ);
-        possibleText[2].modulo(publicKey);
-
-        possibleText[3] = new BigNum(publicKey);
-        possibleText[3].subtract(possibleText[2]);
-
-        for (int i = 0; i < 4; ++i) {
-            long hash = BytesToBigNumsConverter.calculateHash(possibleText[i], BytesToBigNumsConverter.BLOCKS_PER_CHUNK);
-            long firstHashBlock = hash >>> BigNum.BLOCK_SIZE;
-            long secondHashBlock = (hash << BigNum.BLOCK_SIZE) >>> BigNum.BLOCK_SIZE;
-
-            if (possibleText[i].getBlock(BigNum.BLOCKS - 2) == firstHashBlock
-                    && possibleText[i].getBlock(BigNum.BLOCKS - 1) == secondHashBlock) {
-                return possibleText[i];
-            }
-        }
-
-        return BigNum.ZERO;
-    }
-
     /**
      * @param args the command line arguments
      */